@@ -0,0 +1,501 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread-safe writer of {@link HttpExchange HTTP exchanges} in the <a href="https://meeshkan.github.io/http-types/">HTTP Types JSON Lines format</a>.
+ * <p>
+ * Any number of threads can {@link #write(HttpExchange) write} exchanges at the same time. Written exchanges are put
+ * in a bounded, lock-free queue and a single background thread takes them from the queue, encodes them and writes them
+ * to the output in batches. What happens when the queue is full is decided by the {@link Backpressure} of the
+ * {@link Options options}.
+ * <p>
+ * Exchanges are committed in groups: all exchanges queued while the previous group was being written are written
+ * together, and then made as durable as the {@link Options#getDurability() durability} of the options requires with a
+ * single flush or fsync for the whole group. Use {@link #writeAsync(HttpExchange)} to be notified when an exchange has
+ * been committed. This gives the throughput of buffered writes with the durability of flushing or syncing each write.
+ * <p>
+ * Output is the same as that of a {@link HttpExchangeWriter} given the exchanges in the order they were queued, and
+ * can be read back using a {@link HttpExchangeReader}. The writer must be {@link #close() closed} after the last write
+ * to write any exchanges still queued; exchanges written concurrently with closing may be lost.
+ *
+ * @see HttpExchangeWriter
+ */
+public final class ConcurrentHttpExchangeWriter implements Closeable {
+    /**
+     * Number of encoded bytes buffered before writing them to the output, unless the queue runs empty first.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Time for a producer blocked on a full queue to wait before offering its exchange again.
+     */
+    private static final long BLOCKED_PARK_NANOS = 10_000;
+    private static final int SPINS_BEFORE_PARKING = 100;
+
+    @NotNull
+    private final OutputStream out;
+    private final FileChannel channel;
+    private final Options options;
+    private final RingBuffer<QueuedExchange> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainThread;
+    private volatile boolean closed;
+    private volatile boolean drainerParked;
+    private volatile Exception failure;
+
+    // Only accessed by the background thread.
+    private final HttpExchangeEncoder encoder = new HttpExchangeEncoder(BUFFER_SIZE * 2);
+    private final List<CompletableFuture<Void>> uncommitted = new ArrayList<>();
+    private boolean first = true;
+    /**
+     * Whether exchanges have been encoded since the last commit, even if already written to the output.
+     */
+    private boolean pending;
+    private volatile long written;
+
+    /**
+     * Creates a concurrent HTTP exchange writer with the default options that uses the specified output stream.
+     *
+     * @param out Output where to write the serialized HTTP exchanges
+     */
+    public ConcurrentHttpExchangeWriter(@NotNull OutputStream out) {
+        this(out, Options.DEFAULT);
+    }
+
+    /**
+     * Creates a concurrent HTTP exchange writer that uses the specified output stream.
+     *
+     * @param out     Output where to write the serialized HTTP exchanges
+     * @param options the options of the writer
+     */
+    public ConcurrentHttpExchangeWriter(@NotNull OutputStream out, @NotNull Options options) {
+        this(out, null, options);
+    }
+
+    /**
+     * Creates a concurrent HTTP exchange writer that writes to the specified file channel.
+     * <p>
+     * Only writers of file channels support the {@link Durability#FSYNC} durability.
+     *
+     * @param channel File where to write the serialized HTTP exchanges, at its current position
+     * @param options the options of the writer
+     */
+    public ConcurrentHttpExchangeWriter(@NotNull FileChannel channel, @NotNull Options options) {
+        this(Channels.newOutputStream(channel), channel, options);
+    }
+
+    private ConcurrentHttpExchangeWriter(OutputStream out, FileChannel channel, Options options) {
+        if (options.getDurability() == Durability.FSYNC && channel == null) {
+            throw new IllegalArgumentException("Durability " + Durability.FSYNC + " requires writing to a FileChannel");
+        }
+        this.out = out;
+        this.channel = channel;
+        this.options = options;
+        this.queue = new RingBuffer<>(options.getCapacity());
+        this.drainThread = new Thread(this::drain, "http-exchange-writer");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * Queues a HTTP exchange to be written as a single JSON formatted line.
+     * <p>
+     * When the queue is full this blocks, drops the given exchange or drops the oldest queued exchange, depending on
+     * the {@link Options#getBackpressure() backpressure} of the writer.
+     *
+     * @param exchange The HTTP exchange to write
+     * @return true if the exchange was queued, false if it was dropped
+     * @throws IllegalStateException if the writer is closed
+     * @throws RuntimeException      if writing a previous exchange failed, with the cause of the failure
+     */
+    public boolean write(@NotNull HttpExchange exchange) {
+        return queue(new QueuedExchange(exchange, null));
+    }
+
+    /**
+     * Queues a HTTP exchange to be written as a single JSON formatted line, returning a future completed when it has
+     * been committed.
+     * <p>
+     * The future completes normally once the exchange is as durable as required by the
+     * {@link Options#getDurability() durability} of the writer. It completes exceptionally with the cause if writing
+     * fails, or with a {@link RejectedExecutionException} if the exchange is dropped because the queue is full.
+     * When the queue is full and the backpressure is {@link Backpressure#BLOCK} this blocks like {@link #write(HttpExchange)}.
+     *
+     * @param exchange The HTTP exchange to write
+     * @return a future completed when the exchange has been committed
+     * @throws IllegalStateException if the writer is closed
+     * @throws RuntimeException      if writing a previous exchange failed, with the cause of the failure
+     */
+    public CompletableFuture<Void> writeAsync(@NotNull HttpExchange exchange) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!queue(new QueuedExchange(exchange, future))) {
+            future.completeExceptionally(new RejectedExecutionException("Exchange dropped as the queue is full"));
+        }
+        return future;
+    }
+
+    private boolean queue(QueuedExchange exchange) {
+        checkOpen();
+        switch (options.getBackpressure()) {
+            case BLOCK:
+                for (int spins = 0; !queue.offer(exchange); spins++) {
+                    checkOpen();
+                    LockSupport.unpark(drainThread);
+                    if (spins < SPINS_BEFORE_PARKING) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(exchange)) {
+                    dropped.increment();
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(exchange)) {
+                    QueuedExchange oldest = queue.poll();
+                    if (oldest != null) {
+                        dropped.increment();
+                        oldest.fail(new RejectedExecutionException("Exchange dropped as the queue is full"));
+                    }
+                }
+                break;
+        }
+        if (drainerParked) {
+            LockSupport.unpark(drainThread);
+        } else if (failure != null || !drainThread.isAlive()) {
+            // Queued after the background thread stopped, so nobody else will.
+            failQueued();
+        }
+        return true;
+    }
+
+    private void failQueued() {
+        Exception cause = failure != null ? failure : new IllegalStateException("Writer is closed");
+        for (QueuedExchange exchange = queue.poll(); exchange != null; exchange = queue.poll()) {
+            exchange.fail(cause);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                QueuedExchange exchange = queue.poll();
+                if (exchange != null) {
+                    if (first) {
+                        first = false;
+                    } else {
+                        encoder.writeByte('\n');
+                    }
+                    encoder.encode(exchange.exchange);
+                    written++;
+                    pending = true;
+                    if (exchange.future != null) {
+                        uncommitted.add(exchange.future);
+                    }
+                    if (uncommitted.size() >= queue.capacity()) {
+                        // Bounds the wait for a commit when the queue never runs empty.
+                        commit();
+                    } else if (encoder.size() >= BUFFER_SIZE) {
+                        writeBuffer();
+                    }
+                    continue;
+                }
+                // The queue is empty: commit the group of exchanges taken since the last commit, and wait for more.
+                if (pending) {
+                    commit();
+                }
+                if (closed) {
+                    if (queue.size() == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                drainerParked = true;
+                if (queue.size() == 0) {
+                    LockSupport.park(this);
+                }
+                drainerParked = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            for (CompletableFuture<Void> future : uncommitted) {
+                future.completeExceptionally(e);
+            }
+            uncommitted.clear();
+            failQueued();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        encoder.writeTo(out);
+        encoder.reset();
+    }
+
+    private void commit() throws IOException {
+        writeBuffer();
+        switch (options.getDurability()) {
+            case BUFFERED:
+                break;
+            case FLUSHED:
+                out.flush();
+                break;
+            case FSYNC:
+                out.flush();
+                channel.force(false);
+                break;
+        }
+        for (CompletableFuture<Void> future : uncommitted) {
+            future.complete(null);
+        }
+        uncommitted.clear();
+        pending = false;
+    }
+
+    /**
+     * Number of exchanges queued but not yet written.
+     *
+     * @return the current depth of the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Number of exchanges dropped because the queue was full.
+     *
+     * @return the number of dropped exchanges, always 0 with {@link Backpressure#BLOCK}
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of exchanges taken from the queue and encoded, some of which may still be buffered until written to the output.
+     *
+     * @return the number of written exchanges
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Writes all queued exchanges, waiting for the background thread to finish, and closes the output.
+     *
+     * @throws IOException if writing any exchange or closing the output failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing queued exchanges");
+        }
+        failQueued();
+        try {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class QueuedExchange {
+        private final HttpExchange exchange;
+        private final CompletableFuture<Void> future;
+
+        private QueuedExchange(HttpExchange exchange, CompletableFuture<Void> future) {
+            this.exchange = exchange;
+            this.future = future;
+        }
+
+        private void fail(Exception cause) {
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * How durable a group of exchanges written by a {@link ConcurrentHttpExchangeWriter} is made before the futures
+     * of its exchanges complete.
+     */
+    public enum Durability {
+        /**
+         * Exchanges have been written to the output, which may still buffer them. Nothing is flushed before closing.
+         */
+        BUFFERED,
+        /**
+         * Exchanges have been written to the output and the output has been {@link OutputStream#flush() flushed}, so
+         * they survive the process crashing but not necessarily the operating system crashing.
+         */
+        FLUSHED,
+        /**
+         * Exchanges have been written to the file and {@link FileChannel#force(boolean) forced} to the storage device,
+         * so they survive the operating system crashing. Requires writing to a {@link FileChannel}.
+         */
+        FSYNC
+    }
+
+    /**
+     * What a {@link ConcurrentHttpExchangeWriter} does when its queue is full.
+     */
+    public enum Backpressure {
+        /**
+         * Block the writing thread until there is room in the queue.
+         */
+        BLOCK,
+        /**
+         * Drop the exchange being written.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest exchange in the queue to make room for the exchange being written.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Options of a {@link ConcurrentHttpExchangeWriter}.
+     * <p>
+     * Use {@link Builder} to create instances, or {@link #DEFAULT} for the default options.
+     */
+    public static final class Options {
+        /**
+         * The options used by the constructor not taking any options.
+         */
+        public static final Options DEFAULT = new Options.Builder().build();
+
+        private final int capacity;
+        private final Backpressure backpressure;
+        private final Durability durability;
+
+        private Options(int capacity, Backpressure backpressure, Durability durability) {
+            this.capacity = capacity;
+            this.backpressure = backpressure;
+            this.durability = durability;
+        }
+
+        /**
+         * The maximum number of exchanges queued to be written, 8192 by default.
+         *
+         * @return the capacity of the queue
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * What to do when the queue is full, {@link Backpressure#BLOCK} by default.
+         *
+         * @return the backpressure
+         */
+        @NotNull
+        public Backpressure getBackpressure() {
+            return backpressure;
+        }
+
+        /**
+         * How durable each group of written exchanges is made, {@link Durability#BUFFERED} by default.
+         *
+         * @return the durability
+         */
+        @NotNull
+        public Durability getDurability() {
+            return durability;
+        }
+
+        /**
+         * Builder of immutable {@link Options} instances.
+         */
+        public static class Builder {
+            private int capacity = 8192;
+            private Backpressure backpressure = Backpressure.BLOCK;
+            private Durability durability = Durability.BUFFERED;
+
+            /**
+             * Set the maximum number of exchanges queued to be written.
+             *
+             * @param capacity the capacity of the queue, rounded up to a power of two
+             * @return this builder
+             * @see #getCapacity()
+             */
+            public Options.Builder capacity(int capacity) {
+                if (capacity < 1 || capacity > 1 << 30) {
+                    throw new IllegalArgumentException("Invalid capacity: " + capacity);
+                }
+                this.capacity = capacity;
+                return this;
+            }
+
+            /**
+             * Set what to do when the queue is full.
+             *
+             * @param backpressure the backpressure
+             * @return this builder
+             * @see #getBackpressure()
+             */
+            public Options.Builder backpressure(@NotNull Backpressure backpressure) {
+                this.backpressure = backpressure;
+                return this;
+            }
+
+            /**
+             * Set how durable each group of written exchanges is made.
+             *
+             * @param durability the durability
+             * @return this builder
+             * @see #getDurability()
+             */
+            public Options.Builder durability(@NotNull Durability durability) {
+                this.durability = durability;
+                return this;
+            }
+
+            /**
+             * Create writer options using the properties set on this builder.
+             *
+             * @return the built instance
+             */
+            public Options build() {
+                return new Options(capacity, backpressure, durability);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,301 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Splittable source of HTTP exchanges in a GZIP compressed http-types JSON Lines file.
+ * <p>
+ * Members with their size in the header, as written by {@link GzipMemberWriter} or in the BGZF format, are found
+ * by reading the headers only, and splitting divides them in two halves. Each member is then decompressed into a
+ * heap buffer and tokenized on its own, so a {@link java.util.stream.Stream#parallel() parallel} stream decompresses
+ * and parses members concurrently. Members are expected to start at the start of a line. The rest of the file from
+ * the first member without a size, if any, is read sequentially by the last spliterator.
+ * <p>
+ * Malformed lines reported to an {@link HttpExchangeReader.ErrorHandler} get their absolute line number and offset
+ * in the decompressed input by decompressing the members before the range when the first one is reported.
+ */
+final class GzipJsonLinesSpliterator implements Spliterator<HttpExchange> {
+    private static final int FLAG_HEADER_CRC = 0x02;
+    private static final int FLAG_EXTRA = 0x04;
+    private static final int FLAG_NAME = 0x08;
+    private static final int FLAG_COMMENT = 0x10;
+
+    private final HttpExchangeDecoder decoder;
+    private final HttpExchangeDecoder lineDecoder;
+    private final FileChannel channel;
+    /**
+     * Start offsets of the members with a size, followed by the end offset of the last one.
+     */
+    private final long[] memberOffsets;
+    /**
+     * Start of the rest of the file read sequentially, or -1 if none or not part of this spliterator.
+     */
+    private long tailStart;
+    /**
+     * Range of members of this spliterator, the next one to read and the end exclusive.
+     */
+    private int member;
+    private final int endMember;
+    private JsonTokenizer json;
+    private boolean readingTail;
+    /**
+     * Number of lines and bytes in the decompressed input before the current member, or -1 if not counted yet.
+     */
+    private long linesBeforeMember;
+    private long bytesBeforeMember;
+
+    private GzipJsonLinesSpliterator(HttpExchangeDecoder decoder, FileChannel channel, long[] memberOffsets, long tailStart, int member, int endMember) {
+        this.decoder = decoder;
+        HttpExchangeReader.ErrorHandler errorHandler = decoder.getErrorHandler();
+        this.lineDecoder = errorHandler == null ? decoder : decoder.withErrorHandler((lineNumber, offset, error) -> {
+            countBeforeMember();
+            errorHandler.malformedLine(linesBeforeMember + lineNumber, bytesBeforeMember + offset, error);
+        });
+        this.channel = channel;
+        this.memberOffsets = memberOffsets;
+        this.tailStart = tailStart;
+        this.member = member;
+        this.endMember = endMember;
+        this.linesBeforeMember = member == 0 ? 0 : -1;
+        this.bytesBeforeMember = member == 0 ? 0 : -1;
+    }
+
+    /**
+     * Create a spliterator over a whole GZIP file, finding the members by reading their headers.
+     */
+    static GzipJsonLinesSpliterator open(HttpExchangeDecoder decoder, FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long[] offsets = new long[16];
+        int members = 0;
+        long position = 0;
+        while (position < fileSize) {
+            long size = memberSize(channel, position);
+            if (size <= 0 || position + size > fileSize) {
+                break;
+            }
+            if (members + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[members++] = position;
+            position += size;
+        }
+        offsets[members] = position;
+        return new GzipJsonLinesSpliterator(decoder, channel, Arrays.copyOf(offsets, members + 1),
+                position < fileSize ? position : -1, 0, members);
+    }
+
+    /**
+     * The total size of the member at the given offset from its header, or -1 if the header has no size.
+     */
+    private static long memberSize(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = read(channel, position, 12);
+        if (header.remaining() < 12 || !GzipMemberWriter.isGzip(header.get(0), header.get(1))
+                || (header.get(3) & FLAG_EXTRA) == 0) {
+            return -1;
+        }
+        int extraLength = unsignedShort(header, 10);
+        ByteBuffer extra = read(channel, position + 12, extraLength);
+        for (int i = 0; i + 4 <= extra.remaining(); ) {
+            int id1 = extra.get(i);
+            int id2 = extra.get(i + 1);
+            int length = unsignedShort(extra, i + 2);
+            if (id1 == GzipMemberWriter.SIZE_SUBFIELD_1 && id2 == GzipMemberWriter.SIZE_SUBFIELD_2 && length == 4 && i + 8 <= extra.remaining()) {
+                return extra.getInt(i + 4) & 0xffffffffL;
+            } else if (id1 == 'B' && id2 == 'C' && length == 2 && i + 6 <= extra.remaining()) {
+                // BGZF stores the size minus one.
+                return unsignedShort(extra, i + 4) + 1;
+            }
+            i += 4 + length;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xffff;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super HttpExchange> action) {
+        try {
+            while (true) {
+                while (json == null || !json.hasMoreInput()) {
+                    if (json != null) {
+                        if (linesBeforeMember >= 0) {
+                            linesBeforeMember += json.lineNumber() - 1;
+                            bytesBeforeMember += json.position();
+                        }
+                        if (readingTail) {
+                            json = null;
+                            return false;
+                        }
+                        member++;
+                    }
+                    if (member < endMember) {
+                        json = new JsonTokenizer(ByteBuffer.wrap(decompress(member)));
+                    } else if (tailStart >= 0) {
+                        InputStream tail = new GZIPInputStream(Channels.newInputStream(channel.position(tailStart)), 65536);
+                        json = new JsonTokenizer(tail);
+                        readingTail = true;
+                        tailStart = -1;
+                    } else {
+                        json = null;
+                        return false;
+                    }
+                }
+                HttpExchange exchange = lineDecoder.readJsonLine(json);
+                // Exchanges not matching the filter, or malformed in lenient mode, are read as null.
+                if (exchange != null) {
+                    action.accept(exchange);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decompress a member with a size, checking its CRC and decompressed size.
+     */
+    private byte[] decompress(int index) throws IOException {
+        long start = memberOffsets[index];
+        int size = (int) (memberOffsets[index + 1] - start);
+        ByteBuffer compressed = read(channel, start, size);
+        if (compressed.remaining() < size) {
+            throw new ZipException("Truncated GZIP member at offset " + start);
+        }
+        int flags = compressed.get(3);
+        int dataStart = 12 + unsignedShort(compressed, 10);
+        if ((flags & FLAG_NAME) != 0) {
+            dataStart = skipZeroTerminated(compressed, dataStart);
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            dataStart = skipZeroTerminated(compressed, dataStart);
+        }
+        if ((flags & FLAG_HEADER_CRC) != 0) {
+            dataStart += 2;
+        }
+        int expectedCrc = compressed.getInt(size - 8);
+        int length = compressed.getInt(size - 4);
+        if (length < 0 || dataStart > size - 8) {
+            throw new ZipException("Invalid GZIP member at offset " + start);
+        }
+        byte[] bytes = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed.array(), dataStart, size - 8 - dataStart);
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            // The end of the deflate stream may only be reached by inflating past the expected length.
+            if (inflated == length && !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new ZipException("Corrupt GZIP member at offset " + start);
+            }
+            if (inflated != length || !inflater.finished()) {
+                throw new ZipException("Corrupt GZIP member at offset " + start);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt GZIP member at offset " + start + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new ZipException("CRC mismatch of GZIP member at offset " + start);
+        }
+        return bytes;
+    }
+
+    private static int skipZeroTerminated(ByteBuffer buffer, int index) {
+        while (index < buffer.limit() && buffer.get(index) != 0) {
+            index++;
+        }
+        return index + 1;
+    }
+
+    private void countBeforeMember() {
+        if (linesBeforeMember >= 0) {
+            return;
+        }
+        try {
+            long lines = 0;
+            long bytes = 0;
+            int end = readingTail ? memberOffsets.length - 1 : member;
+            for (int i = 0; i < end; i++) {
+                byte[] decompressed = decompress(i);
+                for (byte b : decompressed) {
+                    if (b == '\n') {
+                        lines++;
+                    }
+                }
+                bytes += decompressed.length;
+            }
+            linesBeforeMember = lines;
+            bytesBeforeMember = bytes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<HttpExchange> trySplit() {
+        if (json != null || endMember - member < 2) {
+            return null;
+        }
+        int middle = member + (endMember - member) / 2;
+        GzipJsonLinesSpliterator prefix = new GzipJsonLinesSpliterator(decoder, channel, memberOffsets, -1, member, middle);
+        member = middle;
+        linesBeforeMember = -1;
+        bytesBeforeMember = -1;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = memberOffsets[endMember] - memberOffsets[Math.min(member, endMember)];
+        if (tailStart >= 0 || readingTail) {
+            try {
+                size += channel.size() - memberOffsets[memberOffsets.length - 1];
+            } catch (IOException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+}
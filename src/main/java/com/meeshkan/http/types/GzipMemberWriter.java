@@ -0,0 +1,100 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writer of independently decompressible GZIP members, which concatenated form a valid multi-member GZIP file.
+ * <p>
+ * Each member header has an extra field with the total size of the member in bytes, like the "BC" field of the BGZF
+ * format but 4 bytes long to allow larger members. Readers can then find the member boundaries by reading the headers
+ * only, and decompress the members in parallel, see {@link GzipJsonLinesSpliterator}. Instances are not thread-safe.
+ */
+final class GzipMemberWriter {
+    static final int MAGIC_1 = 0x1f;
+    static final int MAGIC_2 = 0x8b;
+    static final int FLAG_EXTRA = 0x04;
+    /**
+     * The identifier of the extra subfield with the size of the member.
+     */
+    static final int SIZE_SUBFIELD_1 = 'H';
+    static final int SIZE_SUBFIELD_2 = 'T';
+    private static final int HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private byte[] member = new byte[8192];
+
+    GzipMemberWriter() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    GzipMemberWriter(int level) {
+        this.deflater = new Deflater(level, true);
+    }
+
+    static boolean isGzip(int b1, int b2) {
+        return (b1 & 0xff) == MAGIC_1 && (b2 & 0xff) == MAGIC_2;
+    }
+
+    /**
+     * Compress the bytes as a single member and write it to the output.
+     */
+    void write(byte[] bytes, int offset, int length, OutputStream out) throws IOException {
+        deflater.reset();
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        int size = HEADER_SIZE;
+        while (!deflater.finished()) {
+            if (size == member.length) {
+                member = grow(member);
+            }
+            size += deflater.deflate(member, size, member.length - size);
+        }
+        crc.reset();
+        crc.update(bytes, offset, length);
+        if (member.length - size < TRAILER_SIZE) {
+            member = grow(member);
+        }
+        writeInt(member, size, (int) crc.getValue());
+        writeInt(member, size + 4, length);
+        size += TRAILER_SIZE;
+
+        member[0] = (byte) MAGIC_1;
+        member[1] = (byte) MAGIC_2;
+        member[2] = 8; // Deflate
+        member[3] = FLAG_EXTRA;
+        writeInt(member, 4, 0); // No modification time
+        member[8] = 0;
+        member[9] = (byte) 255; // Unknown operating system
+        member[10] = 8; // Length of the extra field
+        member[11] = 0;
+        member[12] = SIZE_SUBFIELD_1;
+        member[13] = SIZE_SUBFIELD_2;
+        member[14] = 4; // Length of the subfield
+        member[15] = 0;
+        writeInt(member, 16, size);
+        out.write(member, 0, size);
+    }
+
+    private static byte[] grow(byte[] bytes) {
+        byte[] grown = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, grown, 0, bytes.length);
+        return grown;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    void end() {
+        deflater.end();
+    }
+
+}
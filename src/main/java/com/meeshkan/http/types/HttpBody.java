@@ -0,0 +1,303 @@
+package com.meeshkan.http.types;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Body of a HTTP request or response, held as a string, as its UTF-8 encoded bytes or as a {@link LazyJsonValue}, and
+ * converted to the other forms when first needed.
+ * <p>
+ * Bodies read from JSON are held as bytes, so that exchanges which are only passed on to a {@link HttpExchangeWriter}
+ * never decode their bodies. Conversions are cached in volatile fields, so that the cached byte arrays are safely
+ * published to other threads - racing threads convert equal values.
+ * <p>
+ * Bodies {@link #spill(byte[], Path) spilled} to disk are held as a memory mapped file instead, and are converted
+ * anew on each access rather than cached on the heap.
+ * <p>
+ * Bodies are equal when their strings are, whatever form they are held in, as {@link HttpRequest#getBody()} and
+ * {@link HttpResponse#getBody()} return them. Spilled bodies are compared and hashed by decoding them in chunks, so
+ * that their strings are never held on the heap as a whole.
+ */
+final class HttpBody {
+    /**
+     * Number of characters decoded at once when comparing or hashing spilled bodies.
+     */
+    private static final int DECODE_CHUNK_SIZE = 8192;
+
+    private volatile String string;
+    private volatile byte[] bytes;
+    private final LazyJsonValue lazy;
+    private final ByteBuffer spilled;
+    /**
+     * Whether the body was created from its UTF-8 encoded bytes, so that equal bytes mean equal strings.
+     */
+    private final boolean encoded;
+    /**
+     * The hash code of a spilled body, or 0 if not computed yet - racing threads compute equal hash codes.
+     */
+    private int spilledHash;
+
+    private HttpBody(String string, byte[] bytes, LazyJsonValue lazy, ByteBuffer spilled) {
+        this.string = string;
+        this.bytes = bytes;
+        this.lazy = lazy;
+        this.spilled = spilled;
+        this.encoded = bytes != null || spilled != null;
+    }
+
+    static HttpBody ofString(String string) {
+        return string == null ? null : new HttpBody(string, null, null, null);
+    }
+
+    /**
+     * Create a body of the given UTF-8 encoded bytes, which are not copied and must not be modified afterwards.
+     */
+    static HttpBody ofBytes(byte[] bytes) {
+        return bytes == null ? null : new HttpBody(null, bytes, null, null);
+    }
+
+    static HttpBody ofLazy(LazyJsonValue lazy) {
+        return new HttpBody(null, null, lazy, null);
+    }
+
+    /**
+     * Create a body of the given UTF-8 encoded bytes held off the heap, written to a temporary file which is mapped
+     * into memory and deleted right away.
+     * <p>
+     * The mapping keeps the content of the file until it is garbage collected. Where open files cannot be deleted,
+     * the file is deleted when the JVM exits instead.
+     *
+     * @param directory the directory of the temporary file, or null for the default temporary directory
+     */
+    static HttpBody spill(byte[] bytes, Path directory) throws IOException {
+        Path file = Files.createTempFile(directory == null ? Paths.get(System.getProperty("java.io.tmpdir")) : directory, "http-body-", ".tmp");
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.wrap(bytes);
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+        return new HttpBody(null, null, null, mapped);
+    }
+
+    /**
+     * Whether the body is held as a string, which is then cheaper to write than {@link #bytes()}.
+     */
+    boolean isString() {
+        return string != null && bytes == null;
+    }
+
+    /**
+     * The read-only buffer of a spilled body, or null if not spilled.
+     */
+    ByteBuffer spilled() {
+        return spilled == null ? null : spilled.duplicate();
+    }
+
+    String string() {
+        if (spilled != null) {
+            return StandardCharsets.UTF_8.decode(spilled()).toString();
+        }
+        String string = this.string;
+        if (string == null) {
+            byte[] bytes = this.bytes;
+            string = bytes != null ? new String(bytes, StandardCharsets.UTF_8) : lazy.decodeString();
+            this.string = string;
+        }
+        return string;
+    }
+
+    /**
+     * The UTF-8 encoded body, which must not be modified.
+     */
+    byte[] bytes() {
+        if (spilled != null) {
+            byte[] bytes = new byte[spilled.remaining()];
+            spilled().get(bytes);
+            return bytes;
+        }
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            String string = this.string;
+            bytes = string != null ? string.getBytes(StandardCharsets.UTF_8) : lazy.decodeStringBytes();
+            this.bytes = bytes;
+        }
+        return bytes;
+    }
+
+    ByteBuffer asReadOnlyBuffer() {
+        return spilled != null ? spilled() : ByteBuffer.wrap(bytes()).asReadOnlyBuffer();
+    }
+
+    InputStream stream() {
+        return spilled != null ? new ByteBufferInputStream(spilled()) : new ByteArrayInputStream(bytes());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HttpBody that = (HttpBody) o;
+        if (encoded && that.encoded && asReadOnlyBuffer().equals(that.asReadOnlyBuffer())) {
+            return true;
+        }
+        // Different bytes may still decode to equal strings, such as malformed bytes and their replacement.
+        if (spilled == null && that.spilled == null) {
+            return string().equals(that.string());
+        }
+        Chars chars = new Chars(this);
+        Chars other = new Chars(that);
+        CharBuffer chunk = chars.next();
+        CharBuffer otherChunk = other.next();
+        while (true) {
+            while (chunk != null && !chunk.hasRemaining()) {
+                chunk = chars.next();
+            }
+            while (otherChunk != null && !otherChunk.hasRemaining()) {
+                otherChunk = other.next();
+            }
+            if (chunk == null || otherChunk == null) {
+                return chunk == null && otherChunk == null;
+            }
+            for (int n = Math.min(chunk.remaining(), otherChunk.remaining()); n > 0; n--) {
+                if (chunk.get() != otherChunk.get()) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        if (spilled == null) {
+            return string().hashCode();
+        }
+        int hash = spilledHash;
+        if (hash == 0) {
+            // The same as the hash code of the string.
+            Chars chars = new Chars(this);
+            for (CharBuffer chunk = chars.next(); chunk != null; chunk = chars.next()) {
+                while (chunk.hasRemaining()) {
+                    hash = 31 * hash + chunk.get();
+                }
+            }
+            spilledHash = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return spilled != null ? "HttpBody{" + spilled.remaining() + " bytes spilled to disk}" : string();
+    }
+
+    /**
+     * The characters of a body in chunks, decoded from a spilled body a chunk at a time.
+     */
+    private static final class Chars {
+        private final CharBuffer string;
+        private final ByteBuffer in;
+        private final CharsetDecoder decoder;
+        private final CharBuffer out;
+        private boolean decoded;
+        private boolean done;
+
+        private Chars(HttpBody body) {
+            in = body.spilled();
+            if (in == null) {
+                string = CharBuffer.wrap(body.string());
+                decoder = null;
+                out = null;
+            } else {
+                string = null;
+                // Replacing malformed input like StandardCharsets.UTF_8.decode and new String.
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                out = CharBuffer.allocate(DECODE_CHUNK_SIZE);
+            }
+        }
+
+        /**
+         * The next chunk, valid until the next call, or null after the last one.
+         */
+        private CharBuffer next() {
+            if (done) {
+                return null;
+            }
+            if (string != null) {
+                done = true;
+                return string;
+            }
+            out.clear();
+            if (!decoded && decoder.decode(in, out, true).isUnderflow()) {
+                decoded = true;
+            }
+            if (decoded && decoder.flush(out).isUnderflow()) {
+                done = true;
+            }
+            out.flip();
+            return out;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
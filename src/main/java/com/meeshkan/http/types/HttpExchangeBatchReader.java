@@ -0,0 +1,147 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Reader of {@link HttpExchange HTTP exchanges} in batches, filling arrays given by the caller.
+ * <p>
+ * Each call to {@link #read(HttpExchange[], int, int)} decodes up to the requested number of exchanges in one loop over
+ * a large read buffer, without the per-exchange overhead of iterating a {@link java.util.stream.Stream}, so that
+ * processing stages can work on chunks of exchanges at a time. Open instances with
+ * {@link HttpExchangeReader#batchesFromJsonLines(java.io.InputStream, HttpExchangeReader.Options)} or
+ * {@link HttpExchangeReader#batchesFromJsonLines(java.nio.file.Path, HttpExchangeReader.Options)}. Instances are not
+ * thread-safe.
+ */
+public final class HttpExchangeBatchReader implements Closeable {
+    /**
+     * Number of bytes read from a stream at once.
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final JsonTokenizer json;
+    private final HttpExchangeDecoder decoder;
+    private final Spliterator<HttpExchange> spliterator;
+    private final Closeable source;
+    /**
+     * Sink of the spliterator, reused to avoid allocating a consumer per exchange.
+     */
+    private final BatchSink sink = new BatchSink();
+
+    HttpExchangeBatchReader(JsonTokenizer json, HttpExchangeDecoder decoder, Closeable source) {
+        this.json = json;
+        this.decoder = decoder;
+        this.spliterator = null;
+        this.source = source;
+    }
+
+    HttpExchangeBatchReader(Spliterator<HttpExchange> spliterator, Closeable source) {
+        this.json = null;
+        this.decoder = null;
+        this.spliterator = spliterator;
+        this.source = source;
+    }
+
+    /**
+     * Reads the next exchanges into the array, as many as fit unless the input ends first.
+     *
+     * @param batch the array to fill from index 0
+     * @return the number of exchanges read, or -1 if the input has ended
+     * @throws IOException if there is an I/O problem reading the input
+     * @see #read(HttpExchange[], int, int)
+     */
+    public int read(@NotNull HttpExchange[] batch) throws IOException {
+        return read(batch, 0, batch.length);
+    }
+
+    /**
+     * Reads up to the given number of next exchanges into the array.
+     * <p>
+     * Fewer exchanges are read only when the input ends.
+     *
+     * @param batch  the array to fill
+     * @param offset the index in the array of the first exchange read
+     * @param length the maximum number of exchanges to read
+     * @return the number of exchanges read, or -1 if the input has ended
+     * @throws IOException if there is an I/O problem reading the input
+     */
+    public int read(@NotNull HttpExchange[] batch, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > batch.length - offset) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " and length " + length + " for array of length " + batch.length);
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int count = 0;
+        if (json != null) {
+            while (count < length && json.hasMoreInput()) {
+                HttpExchange exchange = decoder.readJsonLine(json);
+                // Exchanges not matching the filter, or malformed in lenient mode, are read as null.
+                if (exchange != null) {
+                    batch[offset + count++] = exchange;
+                }
+            }
+        } else {
+            sink.batch = batch;
+            sink.index = offset;
+            try {
+                while (sink.index < offset + length && spliterator.tryAdvance(sink)) {
+                    // The sink stores the exchange.
+                }
+            } finally {
+                sink.batch = null;
+            }
+            count = sink.index - offset;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Reads all remaining exchanges, passing them to the consumer in batches of the given size, except for a last
+     * smaller batch.
+     * <p>
+     * The list passed to the consumer is backed by an array reused for the next batch, so it is only valid until the
+     * consumer returns and should be copied to be kept.
+     *
+     * @param batchSize the number of exchanges per batch
+     * @param consumer  the consumer of each batch
+     * @throws IOException if there is an I/O problem reading the input
+     */
+    public void forEachBatch(int batchSize, @NotNull Consumer<List<HttpExchange>> consumer) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        HttpExchange[] batch = new HttpExchange[batchSize];
+        List<HttpExchange> view = Collections.unmodifiableList(Arrays.asList(batch));
+        for (int count; (count = read(batch)) > 0; ) {
+            consumer.accept(count == batchSize ? view : view.subList(0, count));
+            Arrays.fill(batch, null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private static final class BatchSink implements Consumer<HttpExchange> {
+        private HttpExchange[] batch;
+        private int index;
+
+        @Override
+        public void accept(HttpExchange exchange) {
+            batch[index++] = exchange;
+        }
+    }
+
+}
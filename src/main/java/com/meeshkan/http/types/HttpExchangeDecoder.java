@@ -0,0 +1,376 @@
+package com.meeshkan.http.types;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoder of HTTP exchanges from JSON tokens, filling the builders of the exchange directly.
+ * <p>
+ * Instances are immutable and only hold the {@link HttpExchangeReader.Options options} in use, so they are shared
+ * between threads and by lazily decoded values.
+ * <p>
+ * Optional and polymorphic fields are told apart by peeking at the next token rather than by catching exceptions,
+ * so well-formed input never throws.
+ */
+final class HttpExchangeDecoder {
+
+    private static final JsonTokenizer.KnownNames EXCHANGE_NAMES = new JsonTokenizer.KnownNames("request", "response");
+    private static final JsonTokenizer.KnownNames REQUEST_NAMES = new JsonTokenizer.KnownNames("method", "protocol", "host", "pathname", "path", "query", "headers", "timestamp", "body");
+    private static final JsonTokenizer.KnownNames RESPONSE_NAMES = new JsonTokenizer.KnownNames("statusCode", "headers", "body", "timestamp");
+    private static final JsonTokenizer.KnownNames HEADER_NAMES = new JsonTokenizer.KnownNames(KnownHeader.NAMES);
+
+    private final HttpExchangeReader.Options options;
+    private final HttpExchangeFilter filter;
+    private final StringDictionary dictionary;
+    private final HttpExchangeReader.ErrorHandler errorHandler;
+
+    HttpExchangeDecoder(HttpExchangeReader.Options options) {
+        this(options, options.getErrorHandler());
+    }
+
+    private HttpExchangeDecoder(HttpExchangeReader.Options options, HttpExchangeReader.ErrorHandler errorHandler) {
+        this.options = options;
+        this.filter = options.getFilter();
+        this.dictionary = options.getStringDictionary();
+        this.errorHandler = errorHandler;
+    }
+
+    HttpExchangeReader.ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Create a decoder with the same options, but reporting malformed lines to the given handler instead.
+     */
+    HttpExchangeDecoder withErrorHandler(HttpExchangeReader.ErrorHandler errorHandler) {
+        return new HttpExchangeDecoder(options, errorHandler);
+    }
+
+    /**
+     * Read the exchange which is the single document of the input, or null if it does not match the filter.
+     */
+    HttpExchange readDocument(JsonTokenizer json) throws IOException {
+        if (options.isLazy()) {
+            byte[] document = json.remaining();
+            return readExchange(new JsonTokenizer(ByteBuffer.wrap(document)), document);
+        }
+        return readExchange(json, null);
+    }
+
+    /**
+     * Read the exchange on the current line, positioning the tokenizer at the start of the next line.
+     * <p>
+     * Returns null if the exchange does not match the filter, in which case the rest of the line is skipped as soon as
+     * a field fails to match. With an error handler, malformed lines are reported to it and also return null.
+     */
+    HttpExchange readJsonLine(JsonTokenizer json) throws IOException {
+        if (errorHandler != null) {
+            // Decode a copy of the line, so that an error anywhere in it cannot leave the tokenizer in the next line.
+            long lineNumber = json.lineNumber();
+            long offset = json.position();
+            byte[] line = json.nextLine();
+            try {
+                return readExchange(new JsonTokenizer(ByteBuffer.wrap(line)), options.isLazy() ? line : null);
+            } catch (RuntimeException e) {
+                errorHandler.malformedLine(lineNumber, offset, e);
+                return null;
+            }
+        } else if (options.isLazy()) {
+            byte[] line = json.nextLine();
+            return readExchange(new JsonTokenizer(ByteBuffer.wrap(line)), line);
+        }
+        json.nextDocument();
+        HttpExchange exchange = readExchange(json, null);
+        // Ignore anything after the exchange on the same line, or the rest of a filtered out exchange.
+        json.skipLine();
+        return exchange;
+    }
+
+    /**
+     * Read an exchange, stopping in the middle of it and returning null as soon as a field does not match the filter.
+     *
+     * @param json   the tokenizer positioned at the exchange
+     * @param source the bytes read by the tokenizer to keep for lazy decoding, or null to decode eagerly
+     */
+    private HttpExchange readExchange(JsonTokenizer json, byte[] source) throws IOException {
+        HttpRequest request = null;
+        HttpResponse response = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName(EXCHANGE_NAMES)) {
+                case "request":
+                    request = readRequest(json, source);
+                    if (request == null) {
+                        return null;
+                    }
+                    break;
+                case "response":
+                    response = readResponse(json, source);
+                    if (response == null) {
+                        return null;
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return new HttpExchange.Builder()
+                .request(required("request", request))
+                .response(required("response", response))
+                .build();
+    }
+
+    private HttpRequest readRequest(JsonTokenizer json, byte[] source) throws IOException {
+        HttpRequest.Builder requestBuilder = new HttpRequest.Builder();
+        HttpUrl.Builder urlBuilder = new HttpUrl.Builder();
+        HttpMethod method = null;
+        String protocolString = null;
+        String host = null;
+        String pathname = null;
+        String path = null;
+        Instant timestamp = null;
+        boolean hasHeaders = false;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName(REQUEST_NAMES)) {
+                case "method":
+                    method = HttpMethod.valueOf(json.nextString().toUpperCase());
+                    if (filter != null && !filter.matchesMethod(method)) {
+                        return null;
+                    }
+                    break;
+                case "protocol":
+                    protocolString = json.nextString();
+                    break;
+                case "host":
+                    host = json.nextString(dictionary);
+                    if (filter != null && !filter.matchesHost(host)) {
+                        return null;
+                    }
+                    break;
+                case "pathname":
+                    if (json.peek() == JsonTokenizer.Token.STRING) {
+                        pathname = json.nextString(dictionary);
+                        if (filter != null && !filter.matchesPathname(pathname)) {
+                            return null;
+                        }
+                    } else {
+                        json.skipValue();
+                    }
+                    break;
+                case "path":
+                    path = json.nextString();
+                    break;
+                case "query":
+                    // Only used together with "pathname" - calling path() below discards these.
+                    if (json.peek() != JsonTokenizer.Token.BEGIN_OBJECT || !options.includes(HttpExchangeReader.Field.QUERY)) {
+                        // Ignore, query not mandatory.
+                        json.skipValue();
+                    } else if (source != null) {
+                        urlBuilder.lazyQueryParameters(lazyValue(json, source));
+                    } else {
+                        urlBuilder.queryParametersMultivalued(readQuery(json));
+                    }
+                    break;
+                case "headers":
+                    if (!options.includes(HttpExchangeReader.Field.REQUEST_HEADERS)) {
+                        json.skipValue();
+                    } else if (source != null) {
+                        requestBuilder.lazyHeaders(lazyValue(json, source));
+                    } else {
+                        requestBuilder.headers(readHeaders(json));
+                    }
+                    hasHeaders = true;
+                    break;
+                case "body":
+                    if (json.peek() != JsonTokenizer.Token.STRING || !options.includes(HttpExchangeReader.Field.REQUEST_BODY)) {
+                        // Ignore non-string optional body.
+                        json.skipValue();
+                    } else if (source != null) {
+                        requestBuilder.lazyBody(lazyValue(json, source));
+                    } else {
+                        requestBuilder.httpBody(readBody(json));
+                    }
+                    break;
+                case "timestamp":
+                    if (json.peek() == JsonTokenizer.Token.STRING) {
+                        timestamp = Iso8601.parse(json.nextString());
+                        if (filter != null && !filter.matchesRequestTimestamp(timestamp)) {
+                            return null;
+                        }
+                    } else {
+                        // Ignore non-string optional timestamp.
+                        json.skipValue();
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (filter != null && timestamp == null && filter.hasRequestTimestampCondition()) {
+            return null;
+        }
+        if (!hasHeaders) {
+            throw missing("headers");
+        }
+        requestBuilder.method(required("method", method));
+        requestBuilder.timestamp(timestamp);
+        urlBuilder.protocol(HttpProtocol.valueOf(required("protocol", protocolString).toUpperCase()));
+        urlBuilder.host(required("host", host));
+        if (pathname != null) {
+            urlBuilder.pathname(pathname);
+        } else {
+            urlBuilder.preserveRawPath(options.isPreserveRawPath()).path(required("path", path));
+        }
+        HttpUrl url = urlBuilder.build();
+        if (filter != null && pathname == null && !filter.matchesPathname(url.getPathname())) {
+            return null;
+        }
+        return requestBuilder
+                .url(url)
+                .build();
+    }
+
+    private HttpResponse readResponse(JsonTokenizer json, byte[] source) throws IOException {
+        HttpResponse.Builder responseBuilder = new HttpResponse.Builder();
+        boolean hasStatusCode = false;
+        boolean hasHeaders = false;
+        boolean hasBody = false;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName(RESPONSE_NAMES)) {
+                case "statusCode":
+                    int statusCode = json.nextInt();
+                    if (filter != null && !filter.matchesStatusCode(statusCode)) {
+                        return null;
+                    }
+                    responseBuilder.statusCode(statusCode);
+                    hasStatusCode = true;
+                    break;
+                case "headers":
+                    if (!options.includes(HttpExchangeReader.Field.RESPONSE_HEADERS)) {
+                        json.skipValue();
+                    } else if (source != null) {
+                        responseBuilder.lazyHeaders(lazyValue(json, source));
+                    } else {
+                        responseBuilder.headers(readHeaders(json));
+                    }
+                    hasHeaders = true;
+                    break;
+                case "body":
+                    if (!options.includes(HttpExchangeReader.Field.RESPONSE_BODY)) {
+                        json.skipValue();
+                    } else if (source != null && json.peek() == JsonTokenizer.Token.STRING) {
+                        responseBuilder.lazyBody(lazyValue(json, source));
+                    } else {
+                        responseBuilder.httpBody(readBody(json));
+                    }
+                    hasBody = true;
+                    break;
+                case "timestamp":
+                    if (json.peek() == JsonTokenizer.Token.STRING) {
+                        responseBuilder.timestamp(Iso8601.parse(json.nextString()));
+                    } else {
+                        // Ignore non-string optional timestamp.
+                        json.skipValue();
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (!hasStatusCode) {
+            throw missing("statusCode");
+        } else if (!hasHeaders) {
+            throw missing("headers");
+        } else if (!hasBody && options.includes(HttpExchangeReader.Field.RESPONSE_BODY)) {
+            throw missing("body");
+        }
+        return responseBuilder.build();
+    }
+
+    private HttpBody readBody(JsonTokenizer json) throws IOException {
+        byte[] bytes = json.nextStringBytes();
+        if (bytes.length > options.getSpillThreshold()) {
+            return HttpBody.spill(bytes, options.getSpillDirectory());
+        }
+        return HttpBody.ofBytes(bytes);
+    }
+
+    private LazyJsonValue lazyValue(JsonTokenizer json, byte[] source) throws IOException {
+        LazyJsonValue value = new LazyJsonValue(this, source, (int) json.valueStart());
+        json.skipValue();
+        return value;
+    }
+
+    HttpHeaders readHeaders(JsonTokenizer json) throws IOException {
+        HttpHeaders.Builder headers = new HttpHeaders.Builder();
+        json.beginObject();
+        while (json.hasNext()) {
+            String headerName = json.nextName(HEADER_NAMES, dictionary);
+            if (json.peek() == JsonTokenizer.Token.BEGIN_ARRAY) {
+                json.beginArray();
+                if (!json.hasNext()) {
+                    headers.addAll(headerName, Collections.emptyList());
+                }
+                while (json.hasNext()) {
+                    headers.add(headerName, json.nextString(dictionary));
+                }
+                json.endArray();
+            } else {
+                headers.add(headerName, json.nextString(dictionary));
+            }
+        }
+        json.endObject();
+        return headers.build();
+    }
+
+    Map<String, List<String>> readQuery(JsonTokenizer json) throws IOException {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String queryParameter = json.nextName(dictionary);
+            List<String> values = queryParameters.computeIfAbsent(queryParameter, k -> new ArrayList<>());
+            if (json.peek() == JsonTokenizer.Token.BEGIN_ARRAY) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    values.add(json.nextString());
+                }
+                json.endArray();
+            } else {
+                values.add(json.nextString());
+            }
+        }
+        json.endObject();
+        return queryParameters;
+    }
+
+    private static <T> T required(String key, T value) {
+        if (value == null) {
+            throw missing(key);
+        }
+        return value;
+    }
+
+    private static JSONException missing(String key) {
+        return new JSONException("JSONObject[\"" + key + "\"] not found.");
+    }
+
+}
@@ -0,0 +1,545 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Encoder of HTTP exchanges as UTF-8 JSON, appending to a reusable, growable byte buffer.
+ * <p>
+ * Output is byte for byte the same as that of the org.json {@code JSONWriter} used previously: the same key order,
+ * string escapes and encoding of unpaired surrogates. Keys and enum values are encoded once up front, so encoding an
+ * exchange allocates nothing but the buffer growing and the formatted timestamps. Instances are not thread-safe.
+ */
+final class HttpExchangeEncoder {
+    private static final int DEFAULT_CAPACITY = 8192;
+    /**
+     * Number of characters of a string encoded between checks of the buffer capacity.
+     */
+    private static final int CHUNK_LENGTH = 1024;
+    /**
+     * The maximum number of bytes a character is encoded to, as a unicode escape of a control character.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 6;
+    /**
+     * Number of bytes of spilled bodies encoded at once, and passed on to the {@link #streamTo(OutputStream) stream}.
+     */
+    private static final int STREAM_CHUNK_SIZE = 8192;
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+    private static final byte[] REQUEST = ascii("{\"request\":{");
+    private static final byte[] RESPONSE = ascii("},\"response\":{");
+    private static final byte[] END = ascii("}}");
+    private static final byte[] TIMESTAMP = ascii("\"timestamp\":");
+    private static final byte[] PROTOCOL = ascii("\"protocol\":");
+    private static final byte[] METHOD = ascii(",\"method\":");
+    private static final byte[] HEADERS = ascii(",\"headers\":");
+    private static final byte[] PATHNAME = ascii(",\"pathname\":");
+    private static final byte[] HOST = ascii(",\"host\":");
+    private static final byte[] QUERY = ascii(",\"query\":");
+    private static final byte[] BODY = ascii(",\"body\":");
+    private static final byte[] STATUS_CODE = ascii("\"statusCode\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[][] METHODS = quotedLowerCase(HttpMethod.values());
+    private static final byte[][] PROTOCOLS = quotedLowerCase(HttpProtocol.values());
+
+    private final Iso8601.Formatter timestampFormatter = new Iso8601.Formatter();
+    private byte[] bytes;
+    private int size;
+    /**
+     * The last code point written by {@link #writeEscaped(byte[], int, int)}, to escape "/" after "&lt;" across chunks.
+     */
+    private int previousCodePoint;
+    private OutputStream stream;
+
+    HttpExchangeEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    HttpExchangeEncoder(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[][] quotedLowerCase(Enum<?>[] values) {
+        byte[][] quoted = new byte[values.length][];
+        for (Enum<?> value : values) {
+            quoted[value.ordinal()] = ascii('"' + value.name().toLowerCase(Locale.ROOT) + '"');
+        }
+        return quoted;
+    }
+
+    /**
+     * The number of bytes encoded since the last {@link #reset()}.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The buffer holding the encoded bytes from index 0 to {@link #size()}, valid until the next call to this encoder.
+     */
+    byte[] array() {
+        return bytes;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * Put the encoded bytes into the buffer, throwing {@link java.nio.BufferOverflowException} without putting
+     * anything if they do not fit.
+     */
+    void writeTo(ByteBuffer out) {
+        out.put(bytes, 0, size);
+    }
+
+    /**
+     * Pass the encoded bytes on to the given stream while writing bodies spilled to disk, instead of growing the buffer
+     * to hold all of them. The bytes before are passed on too, so the stream must be where the buffer is written.
+     */
+    void streamTo(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Append the exchange as a single line of JSON, without any line feed.
+     */
+    void encode(HttpExchange exchange) {
+        HttpRequest request = exchange.getRequest();
+        HttpUrl url = request.getUrl();
+        write(REQUEST);
+        Instant requestTimestamp = request.getTimestamp();
+        if (requestTimestamp != null) {
+            write(TIMESTAMP);
+            writeString(timestampFormatter.format(requestTimestamp));
+            writeByte(',');
+        }
+        write(PROTOCOL);
+        write(PROTOCOLS[url.getProtocol().ordinal()]);
+        write(METHOD);
+        write(METHODS[request.getMethod().ordinal()]);
+        write(HEADERS);
+        writeHeaders(request.getHeaders());
+        write(PATHNAME);
+        writeString(url.getPathname());
+        write(HOST);
+        writeString(url.getHost());
+        Map<String, List<String>> queryParameters = url.getQueryParameters();
+        if (!queryParameters.isEmpty()) {
+            write(QUERY);
+            writeMultimap(queryParameters);
+        }
+        if (request.body() != null) {
+            write(BODY);
+            writeBody(request.body());
+        }
+
+        HttpResponse response = exchange.getResponse();
+        write(RESPONSE);
+        Instant responseTimestamp = response.getTimestamp();
+        if (responseTimestamp != null) {
+            write(TIMESTAMP);
+            writeString(timestampFormatter.format(responseTimestamp));
+            writeByte(',');
+        }
+        write(STATUS_CODE);
+        writeInt(response.getStatusCode());
+        write(HEADERS);
+        writeHeaders(response.getHeaders());
+        if (response.body() != null) {
+            write(BODY);
+            writeBody(response.body());
+        }
+        write(END);
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    private void write(byte[] constant) {
+        ensureCapacity(constant.length);
+        System.arraycopy(constant, 0, bytes, size, constant.length);
+        size += constant.length;
+    }
+
+    private void writeInt(int number) {
+        // Integer.MIN_VALUE has 11 characters.
+        ensureCapacity(11);
+        long value = number;
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    /**
+     * Write headers as {@link #writeMultimap(Map)} writes their map view, without building it.
+     */
+    private void writeHeaders(HttpHeaders headers) {
+        writeByte('{');
+        int size = headers.size();
+        boolean first = true;
+        for (int i = 0; i < size; i++) {
+            if (!headers.isFirstOfName(i)) {
+                continue;
+            }
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            String name = headers.name(i);
+            writeString(name);
+            writeByte(':');
+            writeByte('[');
+            boolean firstValue = true;
+            for (int j = i; j < size; j++) {
+                // Names added without values have a null value.
+                String value = headers.value(j);
+                if (value != null && headers.name(j).equals(name)) {
+                    if (!firstValue) {
+                        writeByte(',');
+                    }
+                    firstValue = false;
+                    writeString(value);
+                }
+            }
+            writeByte(']');
+        }
+        writeByte('}');
+    }
+
+    private void writeMultimap(Map<String, List<String>> map) {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(entry.getKey());
+            writeByte(':');
+            writeByte('[');
+            List<String> values = entry.getValue();
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                String value = values.get(i);
+                if (value == null) {
+                    write(NULL);
+                } else {
+                    writeString(value);
+                }
+            }
+            writeByte(']');
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Write a quoted, escaped string in the same way as {@code JSONObject.quote}.
+     * <p>
+     * Control characters, C1 controls and the U+2000 block are written as unicode escapes, and "/" is
+     * escaped after "&lt;" so that strings never contain "&lt;/". Unpaired surrogates are encoded as "?", as
+     * {@link java.io.OutputStreamWriter} does.
+     */
+    private void writeString(String value) {
+        int length = value.length();
+        ensureCapacity(2 + Math.min(length, CHUNK_LENGTH) * MAX_BYTES_PER_CHAR);
+        byte[] bytes = this.bytes;
+        int size = this.size;
+        bytes[size++] = '"';
+        char previous = 0;
+        int chunkEnd = CHUNK_LENGTH;
+        for (int i = 0; i < length; i++) {
+            if (i >= chunkEnd) {
+                this.size = size;
+                ensureCapacity(1 + Math.min(length - i, CHUNK_LENGTH) * MAX_BYTES_PER_CHAR);
+                bytes = this.bytes;
+                chunkEnd = i + CHUNK_LENGTH;
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= ' ' && c != '"' && c != '\\' && c != '/') {
+                    bytes[size++] = (byte) c;
+                } else {
+                    switch (c) {
+                        case '"':
+                        case '\\':
+                            bytes[size++] = '\\';
+                            bytes[size++] = (byte) c;
+                            break;
+                        case '/':
+                            if (previous == '<') {
+                                bytes[size++] = '\\';
+                            }
+                            bytes[size++] = '/';
+                            break;
+                        default:
+                            size = writeControlEscape(bytes, size, c);
+                    }
+                }
+            } else if (c < 0xa0 || (c >= 0x2000 && c < 0x2100)) {
+                size = writeUnicodeEscape(bytes, size, c);
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xc0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                bytes[size++] = (byte) (0xe0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+                c = value.charAt(i);
+            } else {
+                bytes[size++] = '?';
+            }
+            previous = c;
+        }
+        bytes[size++] = '"';
+        this.size = size;
+    }
+
+    private void writeBody(HttpBody body) {
+        ByteBuffer spilled = body.spilled();
+        if (spilled != null) {
+            writeString(spilled);
+        } else if (body.isString()) {
+            writeString(body.string());
+        } else {
+            writeString(body.bytes());
+        }
+    }
+
+    /**
+     * Write UTF-8 encoded bytes as a quoted, escaped string, the same as {@link #writeString(String)} would write
+     * them decoded, but without decoding them.
+     * <p>
+     * Bytes which are not valid UTF-8 are decoded first after all, replacing them as when decoding them to a string.
+     */
+    private void writeString(byte[] value) {
+        int start = size;
+        writeByte('"');
+        previousCodePoint = 0;
+        if (!writeEscaped(value, 0, value.length)) {
+            size = start;
+            writeString(new String(value, StandardCharsets.UTF_8));
+            return;
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write the UTF-8 encoded bytes remaining in a buffer as a quoted, escaped string, in chunks which are passed on
+     * to the {@link #streamTo(OutputStream) stream} if any, so that large bodies are never all copied to the heap.
+     */
+    private void writeString(ByteBuffer value) {
+        writeByte('"');
+        previousCodePoint = 0;
+        byte[] chunk = new byte[Math.min(value.remaining(), STREAM_CHUNK_SIZE)];
+        while (value.hasRemaining()) {
+            int length = Math.min(chunk.length, value.remaining());
+            value.get(chunk, 0, length);
+            if (value.hasRemaining()) {
+                // Leave a multi-byte sequence cut by the end of the chunk for the next chunk.
+                int end = sequenceStart(chunk, length);
+                value.position(value.position() - (length - end));
+                length = end;
+            }
+            int start = size;
+            int previous = previousCodePoint;
+            if (!writeEscaped(chunk, 0, length)) {
+                // Replace malformed bytes as when decoding them, which leaves valid UTF-8.
+                size = start;
+                previousCodePoint = previous;
+                byte[] replaced = new String(chunk, 0, length, StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
+                writeEscaped(replaced, 0, replaced.length);
+            }
+            if (stream != null && size >= STREAM_CHUNK_SIZE) {
+                try {
+                    writeTo(stream);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                reset();
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * The start of the multi-byte sequence the given length of bytes ends within, or the length if it ends after a
+     * whole sequence.
+     */
+    private static int sequenceStart(byte[] bytes, int length) {
+        for (int i = length - 1; i >= Math.max(0, length - 3); i--) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x80) {
+                return length;
+            } else if (b >= 0xc0) {
+                int sequenceLength = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : 2;
+                return i + sequenceLength > length ? i : length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Append UTF-8 encoded bytes with the escapes of {@link #writeString(String)}, without quotes.
+     *
+     * @return false if the bytes are not valid UTF-8, in which case only part of them may have been written
+     */
+    private boolean writeEscaped(byte[] value, int from, int to) {
+        // Multi-byte sequences may end up to 3 bytes after the end of a chunk.
+        ensureCapacity((Math.min(to - from, CHUNK_LENGTH) + 4) * MAX_BYTES_PER_CHAR);
+        byte[] bytes = this.bytes;
+        int size = this.size;
+        int previous = previousCodePoint;
+        int chunkEnd = from + CHUNK_LENGTH;
+        int i = from;
+        while (i < to) {
+            if (i >= chunkEnd) {
+                this.size = size;
+                ensureCapacity((Math.min(to - i, CHUNK_LENGTH) + 4) * MAX_BYTES_PER_CHAR);
+                bytes = this.bytes;
+                chunkEnd = i + CHUNK_LENGTH;
+            }
+            int b = value[i] & 0xff;
+            if (b < 0x80) {
+                if (b >= ' ' && b != '"' && b != '\\' && b != '/') {
+                    bytes[size++] = (byte) b;
+                } else if (b == '"' || b == '\\') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = (byte) b;
+                } else if (b == '/') {
+                    if (previous == '<') {
+                        bytes[size++] = '\\';
+                    }
+                    bytes[size++] = '/';
+                } else {
+                    size = writeControlEscape(bytes, size, (char) b);
+                }
+                previous = b;
+                i++;
+                continue;
+            }
+            int sequenceLength;
+            int codePoint;
+            if (b >= 0xc2 && b <= 0xdf) {
+                sequenceLength = 2;
+                codePoint = b & 0x1f;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                sequenceLength = 3;
+                codePoint = b & 0x0f;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                sequenceLength = 4;
+                codePoint = b & 0x07;
+            } else {
+                return false;
+            }
+            if (i + sequenceLength > to) {
+                return false;
+            }
+            for (int j = 1; j < sequenceLength; j++) {
+                int continuation = value[i + j] & 0xff;
+                if ((continuation & 0xc0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (continuation & 0x3f);
+            }
+            if (sequenceLength == 3 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint))
+                    || sequenceLength == 4 && (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT)) {
+                // Overlong encodings, surrogates and code points beyond unicode are malformed.
+                return false;
+            }
+            if (codePoint < 0xa0 || (codePoint >= 0x2000 && codePoint < 0x2100)) {
+                size = writeUnicodeEscape(bytes, size, (char) codePoint);
+            } else {
+                System.arraycopy(value, i, bytes, size, sequenceLength);
+                size += sequenceLength;
+            }
+            previous = codePoint;
+            i += sequenceLength;
+        }
+        this.size = size;
+        previousCodePoint = previous;
+        return true;
+    }
+
+    /**
+     * Write a control character below U+0020 as a short escape if there is one, or as a unicode escape.
+     */
+    private static int writeControlEscape(byte[] bytes, int size, char c) {
+        char escape;
+        switch (c) {
+            case '\b':
+                escape = 'b';
+                break;
+            case '\t':
+                escape = 't';
+                break;
+            case '\n':
+                escape = 'n';
+                break;
+            case '\f':
+                escape = 'f';
+                break;
+            case '\r':
+                escape = 'r';
+                break;
+            default:
+                return writeUnicodeEscape(bytes, size, c);
+        }
+        bytes[size++] = '\\';
+        bytes[size++] = (byte) escape;
+        return size;
+    }
+
+    private static int writeUnicodeEscape(byte[] bytes, int size, char c) {
+        bytes[size++] = '\\';
+        bytes[size++] = 'u';
+        bytes[size++] = HEX_DIGITS[c >> 12];
+        bytes[size++] = HEX_DIGITS[(c >> 8) & 0xf];
+        bytes[size++] = HEX_DIGITS[(c >> 4) & 0xf];
+        bytes[size++] = HEX_DIGITS[c & 0xf];
+        return size;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, size + additional)];
+            System.arraycopy(bytes, 0, grown, 0, size);
+            bytes = grown;
+        }
+    }
+
+}
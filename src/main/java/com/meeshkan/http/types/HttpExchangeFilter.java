@@ -0,0 +1,201 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Declarative filter of HTTP exchanges on status code, method, host, pathname and request timestamp.
+ * <p>
+ * When set on {@link HttpExchangeReader.Options.Builder#filter(HttpExchangeFilter) reader options} each condition is
+ * checked as soon as its field has been read, and the rest of a record failing a check is skipped without being decoded.
+ * This is much faster than reading all exchanges and filtering the resulting stream when only few exchanges match.
+ * <p>
+ * Use {@link Builder} to create instances. Conditions not set on the builder match all exchanges.
+ */
+public final class HttpExchangeFilter implements Predicate<HttpExchange> {
+    private final int minStatusCode;
+    private final int maxStatusCode;
+    @Nullable
+    private final Set<HttpMethod> methods;
+    @Nullable
+    private final String host;
+    @Nullable
+    private final String pathnamePrefix;
+    @Nullable
+    private final Instant requestTimestampFrom;
+    @Nullable
+    private final Instant requestTimestampTo;
+
+    private HttpExchangeFilter(int minStatusCode, int maxStatusCode, @Nullable Set<HttpMethod> methods, @Nullable String host,
+                               @Nullable String pathnamePrefix, @Nullable Instant requestTimestampFrom, @Nullable Instant requestTimestampTo) {
+        this.minStatusCode = minStatusCode;
+        this.maxStatusCode = maxStatusCode;
+        this.methods = methods == null ? null : Collections.unmodifiableSet(methods);
+        this.host = host;
+        this.pathnamePrefix = pathnamePrefix;
+        this.requestTimestampFrom = requestTimestampFrom;
+        this.requestTimestampTo = requestTimestampTo;
+    }
+
+    /**
+     * Whether the given exchange matches all conditions of this filter.
+     *
+     * @param exchange the exchange to test
+     * @return true if the exchange matches this filter
+     */
+    @Override
+    public boolean test(@NotNull HttpExchange exchange) {
+        HttpRequest request = exchange.getRequest();
+        return matchesStatusCode(exchange.getResponse().getStatusCode())
+                && matchesMethod(request.getMethod())
+                && matchesHost(request.getUrl().getHost())
+                && matchesPathname(request.getUrl().getPathname())
+                && matchesRequestTimestamp(request.getTimestamp());
+    }
+
+    boolean matchesStatusCode(int statusCode) {
+        return statusCode >= minStatusCode && statusCode <= maxStatusCode;
+    }
+
+    boolean matchesMethod(HttpMethod method) {
+        return methods == null || methods.contains(method);
+    }
+
+    boolean matchesHost(String host) {
+        return this.host == null || this.host.equalsIgnoreCase(host);
+    }
+
+    boolean matchesPathname(String pathname) {
+        return pathnamePrefix == null || pathname.startsWith(pathnamePrefix);
+    }
+
+    boolean matchesRequestTimestamp(@Nullable Instant timestamp) {
+        if (requestTimestampFrom == null && requestTimestampTo == null) {
+            return true;
+        } else if (timestamp == null) {
+            return false;
+        }
+        return (requestTimestampFrom == null || !timestamp.isBefore(requestTimestampFrom))
+                && (requestTimestampTo == null || timestamp.isBefore(requestTimestampTo));
+    }
+
+    /**
+     * Whether this filter has a condition on the request timestamp, which is then required to be present.
+     */
+    boolean hasRequestTimestampCondition() {
+        return requestTimestampFrom != null || requestTimestampTo != null;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpExchangeFilter{" +
+                "statusCodes=" + minStatusCode + ".." + maxStatusCode +
+                ", methods=" + methods +
+                ", host='" + host + '\'' +
+                ", pathnamePrefix='" + pathnamePrefix + '\'' +
+                ", requestTimestampFrom=" + requestTimestampFrom +
+                ", requestTimestampTo=" + requestTimestampTo +
+                '}';
+    }
+
+    /**
+     * Builder of immutable {@link HttpExchangeFilter} instances.
+     */
+    public static class Builder {
+        private int minStatusCode = Integer.MIN_VALUE;
+        private int maxStatusCode = Integer.MAX_VALUE;
+        private Set<HttpMethod> methods;
+        private String host;
+        private String pathnamePrefix;
+        private Instant requestTimestampFrom;
+        private Instant requestTimestampTo;
+
+        /**
+         * Only match exchanges with a response status code in the given range.
+         * <p>
+         * For example, use {@code statusCodes(200, 299)} to only match successful responses.
+         *
+         * @param min the lowest status code to match, inclusive
+         * @param max the highest status code to match, inclusive
+         * @return this builder
+         */
+        public HttpExchangeFilter.Builder statusCodes(int min, int max) {
+            if (min > max) {
+                throw new IllegalArgumentException("Invalid status code range: " + min + ".." + max);
+            }
+            this.minStatusCode = min;
+            this.maxStatusCode = max;
+            return this;
+        }
+
+        /**
+         * Only match exchanges with one of the given request methods.
+         *
+         * @param methods the request methods to match
+         * @return this builder
+         */
+        public HttpExchangeFilter.Builder methods(@NotNull HttpMethod... methods) {
+            this.methods = methods.length == 0 ? EnumSet.noneOf(HttpMethod.class) : EnumSet.copyOf(Arrays.asList(methods));
+            return this;
+        }
+
+        /**
+         * Only match exchanges with a request to the given host, ignoring case.
+         *
+         * @param host the host, including any port number, to match
+         * @return this builder
+         * @see HttpUrl#getHost()
+         */
+        public HttpExchangeFilter.Builder host(@NotNull String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Only match exchanges with a request pathname starting with the given prefix.
+         *
+         * @param pathnamePrefix the prefix of the pathnames to match
+         * @return this builder
+         * @see HttpUrl#getPathname()
+         */
+        public HttpExchangeFilter.Builder pathnamePrefix(@NotNull String pathnamePrefix) {
+            this.pathnamePrefix = pathnamePrefix;
+            return this;
+        }
+
+        /**
+         * Only match exchanges with a request timestamp in the given range.
+         * <p>
+         * Exchanges without a request timestamp do not match when a range is set.
+         *
+         * @param from the earliest timestamp to match, inclusive, or null for no lower bound
+         * @param to   the latest timestamp to match, exclusive, or null for no upper bound
+         * @return this builder
+         * @see HttpRequest#getTimestamp()
+         */
+        public HttpExchangeFilter.Builder requestTimestamps(@Nullable Instant from, @Nullable Instant to) {
+            this.requestTimestampFrom = from;
+            this.requestTimestampTo = to;
+            return this;
+        }
+
+        /**
+         * Create a HTTP exchange filter using the conditions set on this builder.
+         *
+         * @return the built instance
+         */
+        public HttpExchangeFilter build() {
+            return new HttpExchangeFilter(minStatusCode, maxStatusCode, methods == null ? null : EnumSet.copyOf(methods),
+                    host, pathnamePrefix, requestTimestampFrom, requestTimestampTo);
+        }
+
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sparse index of a http-types JSON Lines file, for random access to its exchanges without reading the whole file.
+ * <p>
+ * The file is divided in blocks of a fixed number of exchanges, and the index holds the byte offset of the first
+ * exchange of each block and the range of request timestamps in the block. Reading the exchange at a given position
+ * then only parses the exchanges before it in its block, and reading the exchanges in a time range only reads the
+ * blocks overlapping it, which is most effective when exchanges are roughly in timestamp order.
+ * <p>
+ * {@link #build(Path, int) Built} indexes are {@link #write() written} to a sidecar file next to the file they index,
+ * and {@link #open(Path) opened} from there. Exchanges appended to the file after the index was built can still be
+ * read, by reading on from the last indexed block. Only uncompressed files can be indexed.
+ */
+public final class HttpExchangeIndex {
+    /**
+     * The number of exchanges per block used by {@link #build(Path)}.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int MAGIC = 0x48544958; // "HTIX"
+    private static final int VERSION = 1;
+
+    @NotNull
+    private final Path file;
+    private final int blockSize;
+    private final long recordCount;
+    /**
+     * The end offset of the last indexed exchange.
+     */
+    private final long indexedEnd;
+    private final long[] blockOffsets;
+    private final Instant[] minTimestamps;
+    private final Instant[] maxTimestamps;
+
+    private HttpExchangeIndex(Path file, int blockSize, long recordCount, long indexedEnd, long[] blockOffsets,
+                              Instant[] minTimestamps, Instant[] maxTimestamps) {
+        this.file = file;
+        this.blockSize = blockSize;
+        this.recordCount = recordCount;
+        this.indexedEnd = indexedEnd;
+        this.blockOffsets = blockOffsets;
+        this.minTimestamps = minTimestamps;
+        this.maxTimestamps = maxTimestamps;
+    }
+
+    /**
+     * Build an index of a file with {@link #DEFAULT_BLOCK_SIZE} exchanges per block, by reading the whole file.
+     *
+     * @param file the file in http-types JSON Lines format
+     * @return the index, to be {@link #write() written} for later use
+     * @throws IOException if there is an I/O problem reading the file
+     * @see #build(Path, int)
+     */
+    @NotNull
+    public static HttpExchangeIndex build(@NotNull Path file) throws IOException {
+        return build(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Build an index of a file, by reading the whole file.
+     * <p>
+     * Smaller blocks make reading single exchanges faster and time ranges more precise, at the cost of a larger index.
+     *
+     * @param file      the file in http-types JSON Lines format
+     * @param blockSize the number of exchanges per block
+     * @return the index, to be {@link #write() written} for later use
+     * @throws IOException              if there is an I/O problem reading the file
+     * @throws IllegalArgumentException if the file is GZIP compressed
+     */
+    @NotNull
+    public static HttpExchangeIndex build(@NotNull Path file, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        long size = Files.size(file);
+        List<Long> offsets = new ArrayList<>();
+        List<Instant> minTimestamps = new ArrayList<>();
+        List<Instant> maxTimestamps = new ArrayList<>();
+        long records = 0;
+        long end = 0;
+        try (Stream<HttpExchangeRecord> stream = HttpExchangeReader.fromJsonLinesWithOffsets(file)) {
+            Iterator<HttpExchangeRecord> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                HttpExchangeRecord record = iterator.next();
+                if (record.getOffset() >= size) {
+                    // Appended while building.
+                    break;
+                }
+                int block = offsets.size() - 1;
+                if (records % blockSize == 0) {
+                    offsets.add(record.getOffset());
+                    minTimestamps.add(null);
+                    maxTimestamps.add(null);
+                    block++;
+                }
+                Instant timestamp = record.getExchange().getRequest().getTimestamp();
+                if (timestamp != null) {
+                    Instant min = minTimestamps.get(block);
+                    if (min == null || timestamp.isBefore(min)) {
+                        minTimestamps.set(block, timestamp);
+                    }
+                    Instant max = maxTimestamps.get(block);
+                    if (max == null || timestamp.isAfter(max)) {
+                        maxTimestamps.set(block, timestamp);
+                    }
+                }
+                records++;
+                end = record.getNextOffset();
+            }
+        }
+        long[] blockOffsets = new long[offsets.size()];
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] = offsets.get(i);
+        }
+        return new HttpExchangeIndex(file, blockSize, records, end, blockOffsets,
+                minTimestamps.toArray(new Instant[0]), maxTimestamps.toArray(new Instant[0]));
+    }
+
+    /**
+     * The sidecar file of the index of a file, in the same directory with ".idx" appended to its name.
+     *
+     * @param file the file in http-types JSON Lines format
+     * @return the path of its index
+     */
+    @NotNull
+    public static Path indexFile(@NotNull Path file) {
+        return file.resolveSibling(file.getFileName() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Write the index to its {@link #indexFile(Path) sidecar file}, replacing any previous index.
+     *
+     * @throws IOException if there is an I/O problem writing the index
+     */
+    public void write() throws IOException {
+        Path indexFile = indexFile(file);
+        Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.writeLong(recordCount);
+            out.writeLong(indexedEnd);
+            out.writeInt(blockOffsets.length);
+            for (int i = 0; i < blockOffsets.length; i++) {
+                out.writeLong(blockOffsets[i]);
+                out.writeBoolean(minTimestamps[i] != null);
+                if (minTimestamps[i] != null) {
+                    out.writeLong(minTimestamps[i].getEpochSecond());
+                    out.writeInt(minTimestamps[i].getNano());
+                    out.writeLong(maxTimestamps[i].getEpochSecond());
+                    out.writeInt(maxTimestamps[i].getNano());
+                }
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open the index of a file from its {@link #indexFile(Path) sidecar file}.
+     *
+     * @param file the file in http-types JSON Lines format, not its index
+     * @return the index
+     * @throws IOException if there is an I/O problem reading the index, if the index is invalid, or if the file was
+     *                     truncated since the index was built
+     */
+    @NotNull
+    public static HttpExchangeIndex open(@NotNull Path file) throws IOException {
+        Path indexFile = indexFile(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an index: " + indexFile);
+            }
+            int blockSize = in.readInt();
+            long recordCount = in.readLong();
+            long indexedEnd = in.readLong();
+            int blocks = in.readInt();
+            if (blockSize < 1 || recordCount < 0 || blocks < 0 || blocks != (recordCount + blockSize - 1) / blockSize) {
+                throw new IOException("Invalid index: " + indexFile);
+            }
+            if (Files.size(file) < indexedEnd) {
+                throw new IOException("Stale index: " + file + " was truncated since indexed");
+            }
+            long[] blockOffsets = new long[blocks];
+            Instant[] minTimestamps = new Instant[blocks];
+            Instant[] maxTimestamps = new Instant[blocks];
+            for (int i = 0; i < blocks; i++) {
+                blockOffsets[i] = in.readLong();
+                if (in.readBoolean()) {
+                    minTimestamps[i] = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                    maxTimestamps[i] = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                }
+            }
+            return new HttpExchangeIndex(file, blockSize, recordCount, indexedEnd, blockOffsets, minTimestamps, maxTimestamps);
+        } catch (EOFException e) {
+            throw new IOException("Truncated index: " + indexFile, e);
+        }
+    }
+
+    /**
+     * @return the indexed file
+     */
+    @NotNull
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of exchanges per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * The number of exchanges in the file when the index was built.
+     *
+     * @return the number of indexed exchanges
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Read the exchange at a given position in the file, parsing only the exchanges before it in its block.
+     *
+     * @param position the position of the exchange, starting at 0
+     * @return the exchange
+     * @throws IOException               if there is an I/O problem reading the file
+     * @throws IndexOutOfBoundsException if the file has no exchange at the position
+     */
+    @NotNull
+    public HttpExchange get(long position) throws IOException {
+        if (position < 0) {
+            throw new IndexOutOfBoundsException("Position: " + position);
+        }
+        int block = (int) Math.min(position / blockSize, blockOffsets.length - 1);
+        long offset = block < 0 ? 0 : blockOffsets[block];
+        long skip = block < 0 ? position : position - (long) block * blockSize;
+        try (Stream<HttpExchange> exchanges = HttpExchangeReader.fromJsonLines(file, offset, HttpExchangeReader.Options.DEFAULT)) {
+            return exchanges.skip(skip).findFirst()
+                    .orElseThrow(() -> new IndexOutOfBoundsException("Position: " + position));
+        }
+    }
+
+    /**
+     * Read the exchanges with request timestamps in a range, reading only the blocks which may contain such exchanges
+     * and the exchanges appended after the index was built.
+     * <p>
+     * The stream holds an open file and should be closed after use, for instance with a try-with-resources statement.
+     *
+     * @param from the inclusive start of the range, or null for no start
+     * @param to   the exclusive end of the range, or null for no end
+     * @return a stream of the exchanges in the range, in file order, or of all exchanges if the range has no start or end
+     * @throws IOException if there is an I/O problem opening the file
+     */
+    @NotNull
+    public Stream<HttpExchange> getRange(@Nullable Instant from, @Nullable Instant to) throws IOException {
+        HttpExchangeDecoder decoder = new HttpExchangeDecoder(new HttpExchangeReader.Options.Builder()
+                .filter(new HttpExchangeFilter.Builder().requestTimestamps(from, to).build())
+                .build());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            // Byte ranges of consecutive blocks to read, as pairs of start and end offsets.
+            List<long[]> ranges = new ArrayList<>();
+            boolean bounded = from != null || to != null;
+            for (int i = 0; i < blockOffsets.length; i++) {
+                if (bounded && minTimestamps[i] == null
+                        || from != null && maxTimestamps[i].isBefore(from)
+                        || to != null && !minTimestamps[i].isBefore(to)) {
+                    continue;
+                }
+                long end = i + 1 < blockOffsets.length ? blockOffsets[i + 1] : indexedEnd;
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[1] == blockOffsets[i]) {
+                    last[1] = end;
+                } else {
+                    ranges.add(new long[]{blockOffsets[i], end});
+                }
+            }
+            long size = channel.size();
+            if (size > indexedEnd) {
+                ranges.add(new long[]{indexedEnd, size});
+            }
+            return StreamSupport.stream(new JsonLinesSpliterator.Ranges(decoder, channel, ranges), false)
+                    .onClose(() -> {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpExchangeIndex{" +
+                "file=" + file +
+                ", blockSize=" + blockSize +
+                ", recordCount=" + recordCount +
+                ", blocks=" + blockOffsets.length +
+                '}';
+    }
+
+}
@@ -1,57 +1,42 @@
 package com.meeshkan.http.types;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.temporal.TemporalAccessor;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
+import java.util.Set;
 import java.util.Spliterators;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Reader of {@link HttpExchange HTTP exchanges} in the <a href="https://meeshkan.github.io/http-types/">http-types JSON Lines format</a>.
+ * <p>
+ * All methods have a variant taking {@link Options} to control how exchanges are decoded. Methods reading JSON Lines
+ * from a stream or file also read GZIP compressed input, detected by its magic number.
  *
  * @see HttpExchangeWriter
  */
 public final class HttpExchangeReader {
 
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = new DateTimeFormatterBuilder()
-            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
-            .optionalStart().appendOffsetId()
-            .toFormatter();
-
     private HttpExchangeReader() {
         // Not for instantiation, only a container of static methods.
     }
 
-    // See https://stackoverflow.com/a/46410889/300710
-    private static Instant parseIso8601(String input) {
-        if (input == null) {
-            return null;
-        }
-        Instant instant;
-        TemporalAccessor parsed = DATE_TIME_FORMATTER.parseBest(input, Instant::from, LocalDateTime::from);
-        if (parsed instanceof Instant) {
-            instant = (Instant) parsed;
-        } else if (parsed instanceof LocalDateTime) {
-            instant = ((LocalDateTime) parsed).atOffset(ZoneOffset.UTC).toInstant();
-        } else {
-            throw new RuntimeException("Invalid timestamp: '" + input + "'");
-        }
-        return instant;
-    }
-
     /**
      * Read a single HTTP exchange from a JSON formatted string in the http-types format.
      *
@@ -61,12 +46,19 @@ public final class HttpExchangeReader {
      * @see #fromJson(Reader)
      */
     public static HttpExchange fromJson(String in) {
-        try {
-            return fromJson(new StringReader(in));
-        } catch (IOException e) {
-            // Should not happen.
-            throw new RuntimeException(e);
-        }
+        return fromJson(in, Options.DEFAULT);
+    }
+
+    /**
+     * Read a single HTTP exchange from a JSON formatted string in the http-types format.
+     *
+     * @param in      the JSON representation of a single HTTP exchange
+     * @param options the options to use when decoding
+     * @return the parsed HTTP exchange, or null if it does not match the {@link Options#getFilter() filter}
+     * @see #fromJson(String)
+     */
+    public static HttpExchange fromJson(String in, @NotNull Options options) {
+        return fromJson(ByteBuffer.wrap(in.getBytes(StandardCharsets.UTF_8)), options);
     }
 
     /**
@@ -79,7 +71,20 @@ public final class HttpExchangeReader {
      * @see #fromJson(Reader)
      */
     public static HttpExchange fromJson(InputStream in) throws IOException {
-        return fromJson(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return fromJson(in, Options.DEFAULT);
+    }
+
+    /**
+     * Read a single HTTP exchange from a JSON formatted string in the http-types format.
+     *
+     * @param in      the JSON representation of a single HTTP exchange
+     * @param options the options to use when decoding
+     * @return the parsed HTTP exchange, or null if it does not match the {@link Options#getFilter() filter}
+     * @throws IOException if there is an I/O problem reading the input
+     * @see #fromJson(InputStream)
+     */
+    public static HttpExchange fromJson(InputStream in, @NotNull Options options) throws IOException {
+        return new HttpExchangeDecoder(options).readDocument(new JsonTokenizer(in));
     }
 
     /**
@@ -92,116 +97,81 @@ public final class HttpExchangeReader {
      * @see #fromJson(InputStream)
      */
     public static HttpExchange fromJson(Reader in) throws IOException {
-        StringBuilder buffer = new StringBuilder();
-        BufferedReader bufferedReader;
-        if (in instanceof BufferedReader) {
-            bufferedReader = (BufferedReader) in;
-        } else {
-            bufferedReader = new BufferedReader(in);
-        }
-
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            buffer.append(line).append('\n');
-        }
-
-        JSONObject jsonObject = new JSONObject(buffer.toString());
-        JSONObject requestObject = jsonObject.getJSONObject("request");
-        JSONObject responseObject = jsonObject.getJSONObject("response");
-
-        String methodString = requestObject.getString("method");
-        HttpMethod methodEnum = HttpMethod.valueOf(methodString.toUpperCase());
-
-        String protocolString = requestObject.getString("protocol");
-        HttpProtocol protocolEnum = HttpProtocol.valueOf(protocolString.toUpperCase());
-
-        HttpRequest.Builder requestBuilder = new HttpRequest.Builder()
-                .method(methodEnum);
-
-        HttpUrl.Builder urlBuilder = new HttpUrl.Builder();
-        urlBuilder.protocol(protocolEnum);
-        urlBuilder.host(requestObject.getString("host"));
-        try {
-            String pathnameString = requestObject.getString("pathname");
-            try {
-                JSONObject queryObject = requestObject.getJSONObject("query");
-                for (String queryParameter : queryObject.keySet()) {
-                    try {
-                        String queryValue = queryObject.getString(queryParameter);
-                        urlBuilder.addQueryParameter(queryParameter, queryValue);
-                    } catch (JSONException e) {
-                        // Should be an array.
-                        JSONArray queryArray = queryObject.getJSONArray(queryParameter);
-                        for (Object queryValue : queryArray) {
-                            urlBuilder.addQueryParameter(queryParameter, (String) queryValue);
-                        }
-                    }
-                }
-            } catch (JSONException e) {
-                // Ignore, query not mandatory.
-            }
-            urlBuilder.pathname(pathnameString);
-        } catch (JSONException e1) {
-            String path = requestObject.getString("path");
-            urlBuilder.path(path);
-        }
-        requestBuilder.url(urlBuilder.build());
-
-        HttpHeaders.Builder requestHeaders = new HttpHeaders.Builder();
-        JSONObject requestHeadersObject = requestObject.getJSONObject("headers");
-        for (String headerName : requestHeadersObject.keySet()) {
-            try {
-                String headerValue = requestHeadersObject.getString(headerName);
-                requestHeaders.add(headerName, headerValue);
-            } catch (JSONException e) {
-                // Might be an array.
-                JSONArray headersArray = requestHeadersObject.getJSONArray(headerName);
-                for (Object headerValue : headersArray) {
-                    requestHeaders.add(headerName, (String) headerValue);
-                }
-            }
-        }
-        requestBuilder.headers(requestHeaders.build());
+        return fromJson(in, Options.DEFAULT);
+    }
 
-        try {
-            String requestTimestamp = requestObject.getString("timestamp");
-            requestBuilder.timestamp(parseIso8601(requestTimestamp));
-        } catch (JSONException e) {
-            // Ignore non-existing optional timestamp.
-        }
+    /**
+     * Read a single HTTP exchange from a JSON formatted string in the http-types format.
+     *
+     * @param in      the JSON representation of a single HTTP exchange
+     * @param options the options to use when decoding
+     * @return the parsed HTTP exchange, or null if it does not match the {@link Options#getFilter() filter}
+     * @throws IOException if there is an I/O problem reading the input
+     * @see #fromJson(Reader)
+     */
+    public static HttpExchange fromJson(Reader in, @NotNull Options options) throws IOException {
+        return new HttpExchangeDecoder(options).readDocument(new JsonTokenizer(new ReaderInputStream(in)));
+    }
 
-        HttpHeaders.Builder responseHeaders = new HttpHeaders.Builder();
-        JSONObject responseHeadersObject = responseObject.getJSONObject("headers");
-        for (String headerName : responseHeadersObject.keySet()) {
-            try {
-                String headerValue = responseHeadersObject.getString(headerName);
-                responseHeaders.add(headerName, headerValue);
-            } catch (JSONException e) {
-                // Might be an array.
-                JSONArray headersArray = responseHeadersObject.getJSONArray(headerName);
-                for (Object headerValue : headersArray) {
-                    responseHeaders.add(headerName, (String) headerValue);
-                }
-            }
-        }
+    /**
+     * Read a single HTTP exchange from UTF-8 encoded JSON in the http-types format, without decoding it to a string
+     * first.
+     *
+     * @param in     the array containing the JSON representation of a single HTTP exchange
+     * @param offset the index of the first byte of the JSON in the array
+     * @param length the number of bytes of the JSON
+     * @return the parsed HTTP exchange
+     * @see #fromJson(ByteBuffer)
+     */
+    public static HttpExchange fromJson(byte[] in, int offset, int length) {
+        return fromJson(in, offset, length, Options.DEFAULT);
+    }
 
+    /**
+     * Read a single HTTP exchange from UTF-8 encoded JSON in the http-types format, without decoding it to a string
+     * first.
+     *
+     * @param in      the array containing the JSON representation of a single HTTP exchange
+     * @param offset  the index of the first byte of the JSON in the array
+     * @param length  the number of bytes of the JSON
+     * @param options the options to use when decoding
+     * @return the parsed HTTP exchange, or null if it does not match the {@link Options#getFilter() filter}
+     * @see #fromJson(byte[], int, int)
+     */
+    public static HttpExchange fromJson(byte[] in, int offset, int length, @NotNull Options options) {
+        return fromJson(ByteBuffer.wrap(in, offset, length), options);
+    }
 
-        HttpResponse.Builder responseBuilder = new HttpResponse.Builder()
-                .statusCode(responseObject.getInt("statusCode"))
-                .headers(responseHeaders.build())
-                .body(responseObject.getString("body"));
+    /**
+     * Read a single HTTP exchange from the UTF-8 encoded JSON remaining in a buffer, in the http-types format.
+     * <p>
+     * The buffer may be a direct buffer, and its position is not changed.
+     *
+     * @param in the buffer containing the JSON representation of a single HTTP exchange
+     * @return the parsed HTTP exchange
+     * @see #fromJson(byte[], int, int)
+     */
+    public static HttpExchange fromJson(ByteBuffer in) {
+        return fromJson(in, Options.DEFAULT);
+    }
 
+    /**
+     * Read a single HTTP exchange from the UTF-8 encoded JSON remaining in a buffer, in the http-types format.
+     * <p>
+     * The buffer may be a direct buffer, and its position is not changed.
+     *
+     * @param in      the buffer containing the JSON representation of a single HTTP exchange
+     * @param options the options to use when decoding
+     * @return the parsed HTTP exchange, or null if it does not match the {@link Options#getFilter() filter}
+     * @see #fromJson(ByteBuffer)
+     */
+    public static HttpExchange fromJson(ByteBuffer in, @NotNull Options options) {
         try {
-            String responseTimestamp = responseObject.getString("timestamp");
-            responseBuilder.timestamp(parseIso8601(responseTimestamp));
-        } catch (JSONException e) {
-            // Ignore non-existing optional timestamp.
+            return new HttpExchangeDecoder(options).readDocument(new JsonTokenizer(in));
+        } catch (IOException e) {
+            // Should not happen.
+            throw new RuntimeException(e);
         }
-
-        return new HttpExchange.Builder()
-                .request(requestBuilder.build())
-                .response(responseBuilder.build())
-                .build();
     }
 
     /**
@@ -211,10 +181,23 @@ public final class HttpExchangeReader {
      * @return a stream of HTTP Exchanges defined by this archive
      * @see #fromJsonLines(Reader)
      * @see #fromJsonLines(InputStream)
+     * @see #fromJsonLines(Path)
      */
     public static Stream<HttpExchange> fromJsonLines(String jsonLines) {
+        return fromJsonLines(jsonLines, Options.DEFAULT);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted input.
+     *
+     * @param jsonLines the input in http-types JSON Lines format
+     * @param options   the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive
+     * @see #fromJsonLines(String)
+     */
+    public static Stream<HttpExchange> fromJsonLines(String jsonLines, @NotNull Options options) {
         try {
-            return fromJsonLines(new StringReader(jsonLines));
+            return fromJsonLines(new JsonTokenizer(ByteBuffer.wrap(jsonLines.getBytes(StandardCharsets.UTF_8))), options);
         } catch (IOException e) {
             // Should not happen.
             throw new RuntimeException(e);
@@ -231,7 +214,93 @@ public final class HttpExchangeReader {
      * @see #fromJsonLines(String)
      */
     public static Stream<HttpExchange> fromJsonLines(InputStream in) throws IOException {
-        return fromJsonLines(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return fromJsonLines(in, Options.DEFAULT);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted input.
+     * <p>
+     * GZIP compressed input is decompressed as it is read.
+     *
+     * @param in      the input in http-types JSON Lines format, optionally GZIP compressed
+     * @param options the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive
+     * @throws IOException if there is a I/O problem reading the input
+     * @see #fromJsonLines(InputStream)
+     */
+    public static Stream<HttpExchange> fromJsonLines(InputStream in, @NotNull Options options) throws IOException {
+        return fromJsonLines(new JsonTokenizer(decompressIfGzip(in)), options);
+    }
+
+    private static InputStream decompressIfGzip(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] magic = new byte[2];
+        int read = 0;
+        for (int n; read < 2 && (n = pushback.read(magic, read, 2 - read)) > 0; ) {
+            read += n;
+        }
+        pushback.unread(magic, 0, read);
+        if (read == 2 && GzipMemberWriter.isGzip(magic[0], magic[1])) {
+            return new GZIPInputStream(pushback, 65536);
+        }
+        return pushback;
+    }
+
+    /**
+     * Open a reader of batches of HTTP exchanges from a http-types JSON Lines formatted input.
+     *
+     * @param in the input in http-types JSON Lines format, optionally GZIP compressed
+     * @return a batch reader of the HTTP exchanges defined by this archive
+     * @throws IOException if there is a I/O problem reading the input
+     * @see #batchesFromJsonLines(InputStream, Options)
+     */
+    public static HttpExchangeBatchReader batchesFromJsonLines(InputStream in) throws IOException {
+        return batchesFromJsonLines(in, Options.DEFAULT);
+    }
+
+    /**
+     * Open a reader of batches of HTTP exchanges from a http-types JSON Lines formatted input.
+     * <p>
+     * The input is read in large chunks, and exchanges are decoded straight into the arrays passed to the reader.
+     *
+     * @param in      the input in http-types JSON Lines format, optionally GZIP compressed
+     * @param options the options to use when decoding
+     * @return a batch reader of the HTTP exchanges defined by this archive
+     * @throws IOException if there is a I/O problem reading the input
+     * @see #fromJsonLines(InputStream, Options)
+     */
+    public static HttpExchangeBatchReader batchesFromJsonLines(InputStream in, @NotNull Options options) throws IOException {
+        InputStream input = decompressIfGzip(in);
+        return new HttpExchangeBatchReader(new JsonTokenizer(input, HttpExchangeBatchReader.BUFFER_SIZE), new HttpExchangeDecoder(options), input);
+    }
+
+    /**
+     * Open a reader of batches of HTTP exchanges from a http-types JSON Lines formatted file.
+     *
+     * @param path the file in http-types JSON Lines format, optionally GZIP compressed
+     * @return a batch reader of the HTTP exchanges defined by this archive
+     * @throws IOException if there is an I/O problem opening the file
+     * @see #batchesFromJsonLines(Path, Options)
+     */
+    public static HttpExchangeBatchReader batchesFromJsonLines(Path path) throws IOException {
+        return batchesFromJsonLines(path, Options.DEFAULT);
+    }
+
+    /**
+     * Open a reader of batches of HTTP exchanges from a http-types JSON Lines formatted file.
+     * <p>
+     * The file is read as by {@link #fromJsonLines(Path, Options)}, memory mapped or decompressed a member at a
+     * time, and exchanges are decoded straight into the arrays passed to the reader. The reader holds an open file and
+     * should be closed after use.
+     *
+     * @param path    the file in http-types JSON Lines format, optionally GZIP compressed
+     * @param options the options to use when decoding
+     * @return a batch reader of the HTTP exchanges defined by this archive
+     * @throws IOException if there is an I/O problem opening the file
+     */
+    public static HttpExchangeBatchReader batchesFromJsonLines(Path path, @NotNull Options options) throws IOException {
+        Stream<HttpExchange> stream = fromJsonLines(path, options);
+        return new HttpExchangeBatchReader(stream.spliterator(), stream::close);
     }
 
     /**
@@ -244,19 +313,172 @@ public final class HttpExchangeReader {
      * @see #fromJsonLines(String)
      */
     public static Stream<HttpExchange> fromJsonLines(Reader reader) throws IOException {
-        BufferedReader bufferedReader;
-        if (reader instanceof BufferedReader) {
-            bufferedReader = (BufferedReader) reader;
-        } else {
-            bufferedReader = new BufferedReader(reader);
+        return fromJsonLines(reader, Options.DEFAULT);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted input.
+     *
+     * @param reader  the input in http-types JSON Lines format
+     * @param options the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive
+     * @throws IOException if there is an I/O problem reading the input.
+     * @see #fromJsonLines(Reader)
+     */
+    public static Stream<HttpExchange> fromJsonLines(Reader reader, @NotNull Options options) throws IOException {
+        return fromJsonLines(new JsonTokenizer(new ReaderInputStream(reader)), options);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted file.
+     * <p>
+     * The file is memory mapped and its UTF-8 bytes are parsed in place, which avoids the intermediate copies made
+     * when reading from a stream. The returned stream splits the file into byte ranges at line boundaries, so that a
+     * {@link Stream#parallel() parallel} stream parses each range on its own fork/join worker. The stream holds an open
+     * file and should be closed after use, for instance with a try-with-resources statement.
+     * <p>
+     * GZIP compressed files are split at the boundaries of GZIP members that have their size in the header, as
+     * written by a {@link HttpExchangeWriter} with {@link HttpExchangeWriter.Options#isGzip() GZIP enabled} or in the
+     * BGZF format, so that a parallel stream decompresses and parses members concurrently. Like for any ordered stream,
+     * {@link Stream#forEachOrdered(java.util.function.Consumer)} and collecting keep the exchanges in file order, while
+     * {@link Stream#forEach(java.util.function.Consumer)} or {@link Stream#unordered()} let workers go at their own pace.
+     *
+     * @param path the file in http-types JSON Lines format
+     * @return a stream of HTTP Exchanges defined by this archive
+     * @throws IOException if there is an I/O problem opening the file
+     * @see #fromJsonLines(InputStream)
+     */
+    public static Stream<HttpExchange> fromJsonLines(Path path) throws IOException {
+        return fromJsonLines(path, Options.DEFAULT);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted file.
+     *
+     * @param path    the file in http-types JSON Lines format
+     * @param options the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive
+     * @throws IOException if there is an I/O problem opening the file
+     * @see #fromJsonLines(Path)
+     */
+    public static Stream<HttpExchange> fromJsonLines(Path path, @NotNull Options options) throws IOException {
+        return fromJsonLines(path, 0, options);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted file, starting at the given offset.
+     * <p>
+     * This resumes reading a file from a checkpoint, such as the {@link HttpExchangeRecord#getNextOffset() next
+     * offset} of the last exchange processed, without parsing the exchanges before it. Line numbers reported to an
+     * {@link Options#getErrorHandler() error handler} still count from the start of the file.
+     *
+     * @param path    the file in http-types JSON Lines format
+     * @param offset  the byte offset where to start reading, which should be at the start of a line
+     * @param options the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive from the offset
+     * @throws IOException              if there is an I/O problem opening the file
+     * @throws IllegalArgumentException if the offset is negative or past the end of the file, or not 0 for a GZIP
+     *                                  compressed file
+     * @see #fromJsonLinesWithOffsets(Path, long, Options)
+     */
+    public static Stream<HttpExchange> fromJsonLines(Path path, long offset, @NotNull Options options) throws IOException {
+        return fromJsonLines(path, offset, channel -> {
+            if (isGzip(channel)) {
+                if (offset != 0) {
+                    throw new IllegalArgumentException("GZIP compressed files can only be read from the start");
+                }
+                return GzipJsonLinesSpliterator.open(new HttpExchangeDecoder(options), channel);
+            }
+            return new JsonLinesSpliterator(new HttpExchangeDecoder(options), channel, offset, channel.size(),
+                    JsonLinesSpliterator.DEFAULT_MINIMUM_SPLIT_SIZE, JsonLinesSpliterator.DEFAULT_MAXIMUM_WINDOW_SIZE);
+        });
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted file, together with their byte offsets
+     * in the file.
+     *
+     * @param path the file in http-types JSON Lines format
+     * @return a stream of HTTP Exchanges defined by this archive with their offsets
+     * @throws IOException              if there is an I/O problem opening the file
+     * @throws IllegalArgumentException if the file is GZIP compressed
+     * @see #fromJsonLinesWithOffsets(Path, long, Options)
+     */
+    public static Stream<HttpExchangeRecord> fromJsonLinesWithOffsets(Path path) throws IOException {
+        return fromJsonLinesWithOffsets(path, 0, Options.DEFAULT);
+    }
+
+    /**
+     * Parse a stream of HTTP exchanges from a http-types JSON Lines formatted file, starting at the given offset,
+     * together with their byte offsets in the file.
+     * <p>
+     * Committing the {@link HttpExchangeRecord#getNextOffset() next offset} of a record every so often gives a
+     * checkpoint to resume from with {@link #fromJsonLines(Path, long, Options)} or this method. Offsets are of the
+     * file itself, so they are only available for uncompressed files.
+     *
+     * @param path    the file in http-types JSON Lines format
+     * @param offset  the byte offset where to start reading, which should be at the start of a line
+     * @param options the options to use when decoding
+     * @return a stream of HTTP Exchanges defined by this archive from the offset, with their offsets
+     * @throws IOException              if there is an I/O problem opening the file
+     * @throws IllegalArgumentException if the offset is negative or past the end of the file, or if the file is GZIP
+     *                                  compressed
+     */
+    public static Stream<HttpExchangeRecord> fromJsonLinesWithOffsets(Path path, long offset, @NotNull Options options) throws IOException {
+        return fromJsonLines(path, offset, channel -> {
+            if (isGzip(channel)) {
+                throw new IllegalArgumentException("Offsets are not available in GZIP compressed files");
+            }
+            return new JsonLinesSpliterator.Records(new JsonLinesSpliterator(new HttpExchangeDecoder(options), channel, offset, channel.size(),
+                    JsonLinesSpliterator.DEFAULT_MINIMUM_SPLIT_SIZE, JsonLinesSpliterator.DEFAULT_MAXIMUM_WINDOW_SIZE));
+        });
+    }
+
+    private static <T> Stream<T> fromJsonLines(Path path, long offset, SpliteratorFactory<T> spliteratorFactory) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (offset < 0 || offset > channel.size()) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside of " + path);
+            }
+            return StreamSupport.stream(spliteratorFactory.open(channel), false).onClose(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
         }
+    }
+
+    private static boolean isGzip(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        return channel.read(magic, 0) == 2 && GzipMemberWriter.isGzip(magic.get(0), magic.get(1));
+    }
+
+    @FunctionalInterface
+    private interface SpliteratorFactory<T> {
+        Spliterator<T> open(FileChannel channel) throws IOException;
+    }
 
+    private static Stream<HttpExchange> fromJsonLines(JsonTokenizer json, Options options) throws IOException {
+        HttpExchangeDecoder decoder = new HttpExchangeDecoder(options);
         Iterator<HttpExchange> exchangeIterator = new Iterator<HttpExchange>() {
-            private String nextLine = bufferedReader.readLine();
+            private HttpExchange nextExchange;
 
             @Override
             public boolean hasNext() {
-                return nextLine != null;
+                try {
+                    // Exchanges not matching the filter are read as null.
+                    while (nextExchange == null && json.hasMoreInput()) {
+                        nextExchange = decoder.readJsonLine(json);
+                    }
+                    return nextExchange != null;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
 
             @Override
@@ -264,13 +486,9 @@ public final class HttpExchangeReader {
                 if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                try {
-                    HttpExchange parsedExchange = HttpExchangeReader.fromJson(nextLine);
-                    nextLine = bufferedReader.readLine();
-                    return parsedExchange;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+                HttpExchange parsedExchange = nextExchange;
+                nextExchange = null;
+                return parsedExchange;
             }
         };
 
@@ -278,4 +496,334 @@ public final class HttpExchangeReader {
         return StreamSupport.stream(spliterator, false);
     }
 
+    /**
+     * Optional fields of an exchange which can be left out when reading, see {@link Options#getFields()}.
+     */
+    public enum Field {
+        /**
+         * The request headers, see {@link HttpRequest#getHeaders()}.
+         */
+        REQUEST_HEADERS,
+        /**
+         * The request body, see {@link HttpRequest#getBody()}.
+         */
+        REQUEST_BODY,
+        /**
+         * The query parameters of the request URL, see {@link HttpUrl#getQueryParameters()}.
+         */
+        QUERY,
+        /**
+         * The response headers, see {@link HttpResponse#getHeaders()}.
+         */
+        RESPONSE_HEADERS,
+        /**
+         * The response body, see {@link HttpResponse#getBody()}.
+         */
+        RESPONSE_BODY
+    }
+
+    /**
+     * Callback receiving the malformed lines of a JSON Lines input in lenient mode, see {@link Options#getErrorHandler()}.
+     */
+    @FunctionalInterface
+    public interface ErrorHandler {
+        /**
+         * Called for a line which could not be read as an HTTP exchange. The line is then skipped.
+         * <p>
+         * Throwing an exception aborts reading, with the exception thrown from the stream.
+         *
+         * @param lineNumber the line number of the malformed line, starting at 1
+         * @param offset     the byte offset of the start of the malformed line in the input
+         * @param error      the error reading the line
+         */
+        void malformedLine(long lineNumber, long offset, @NotNull RuntimeException error);
+    }
+
+    /**
+     * Options controlling how exchanges are decoded by a {@link HttpExchangeReader}.
+     * <p>
+     * Use {@link Builder} to create instances, or {@link #DEFAULT} for the default options.
+     */
+    public static final class Options {
+        /**
+         * The options used by the methods not taking any options.
+         */
+        public static final Options DEFAULT = new Options.Builder().build();
+
+        private final boolean lazy;
+        private final Set<Field> fields;
+        private final HttpExchangeFilter filter;
+        private final StringDictionary stringDictionary;
+        private final ErrorHandler errorHandler;
+        private final int spillThreshold;
+        private final Path spillDirectory;
+        private final boolean preserveRawPath;
+
+        private Options(boolean lazy, Set<Field> fields, HttpExchangeFilter filter, StringDictionary stringDictionary,
+                        ErrorHandler errorHandler, int spillThreshold, Path spillDirectory, boolean preserveRawPath) {
+            this.lazy = lazy;
+            this.fields = Collections.unmodifiableSet(fields);
+            this.filter = filter;
+            this.stringDictionary = stringDictionary;
+            this.errorHandler = errorHandler;
+            this.spillThreshold = spillThreshold;
+            this.spillDirectory = spillDirectory;
+            this.preserveRawPath = preserveRawPath;
+        }
+
+        /**
+         * Whether headers, bodies and query parameters are decoded lazily.
+         * <p>
+         * In lazy mode each exchange keeps a reference to the raw bytes of its record, and decodes
+         * {@link HttpRequest#getHeaders()}, {@link HttpResponse#getHeaders()}, {@link HttpResponse#getBody()} and
+         * {@link HttpUrl#getQueryParameters()} the first time they are called. This saves work for jobs only looking
+         * at a few fields such as the method, host, pathname and status code. Syntax errors inside a lazily decoded
+         * value are only reported when the value is first accessed.
+         *
+         * @return true if decoding lazily, false if all of the exchange is decoded up front
+         */
+        public boolean isLazy() {
+            return lazy;
+        }
+
+        /**
+         * The optional fields to read, which is all of them by default.
+         * <p>
+         * Fields not in this set are skipped over without being decoded, and are empty or null in the read exchanges.
+         * Skipping fields which are never used, such as large response bodies, saves both decoding time and memory.
+         *
+         * @return an immutable set of the fields to read
+         */
+        @NotNull
+        public Set<Field> getFields() {
+            return fields;
+        }
+
+        boolean includes(Field field) {
+            return fields.contains(field);
+        }
+
+        /**
+         * The filter exchanges must match to be read, if any.
+         * <p>
+         * Each condition of the filter is checked as soon as its field has been read, and the rest of an exchange not
+         * matching is skipped. Streams of exchanges only contain the matching exchanges, and reading a single exchange
+         * not matching returns null.
+         *
+         * @return the filter, or null if all exchanges are read
+         */
+        @Nullable
+        public HttpExchangeFilter getFilter() {
+            return filter;
+        }
+
+        /**
+         * The dictionary of canonical instances of repeated strings, if any.
+         * <p>
+         * With a dictionary, hosts, pathnames, header names and values and query parameter names are taken from it
+         * instead of being created anew for every exchange.
+         *
+         * @return the string dictionary, or null if strings are not deduplicated
+         */
+        @Nullable
+        public StringDictionary getStringDictionary() {
+            return stringDictionary;
+        }
+
+        /**
+         * The handler of malformed lines when reading JSON Lines, if any.
+         * <p>
+         * By default the first malformed line aborts the stream with an exception. With an error handler set, reading is
+         * lenient instead: each malformed line is reported to the handler and skipped, and reading continues with the
+         * next line. Each line is then copied before decoding, so that an error cannot affect the lines after it.
+         * Errors in lazily decoded values are still only thrown when the value is accessed.
+         *
+         * @return the error handler, or null if malformed lines abort reading
+         */
+        @Nullable
+        public ErrorHandler getErrorHandler() {
+            return errorHandler;
+        }
+
+        /**
+         * The size in bytes above which bodies are spilled to disk, which is never by default.
+         * <p>
+         * A body larger than this is written to a temporary file in the {@link #getSpillDirectory() spill directory}
+         * as soon as it has been read, and the exchange holds a read-only memory mapping of the file instead of the
+         * body itself. Such bodies take no heap space while the exchange is kept, are read back on demand with
+         * {@link HttpResponse#getBodyStream()} or {@link HttpResponse#getBodyBytes()}, and are streamed to the output
+         * by a {@link HttpExchangeWriter} without being copied to the heap. The file is deleted right away, its space
+         * being freed once the exchange is garbage collected. The record holding the body is still buffered while it is
+         * read, and lazily decoded bodies are never spilled.
+         *
+         * @return the maximum size of bodies kept on the heap
+         */
+        public int getSpillThreshold() {
+            return spillThreshold;
+        }
+
+        /**
+         * The directory where bodies larger than the {@link #getSpillThreshold() spill threshold} are written, if not
+         * the default temporary directory.
+         *
+         * @return the directory for spilled bodies, or null for the default temporary directory
+         */
+        @Nullable
+        public Path getSpillDirectory() {
+            return spillDirectory;
+        }
+
+        /**
+         * Whether the "path" field of records without a "pathname" is kept as read, which is not the case by default.
+         * <p>
+         * {@link HttpUrl#getPath()} of such exchanges then returns the path with its query encoded exactly as in the
+         * record, without encoding the query parameters anew, see {@link HttpUrl.Builder#preserveRawPath(boolean)}.
+         *
+         * @return true if the path is kept as read, false if the query parameters are encoded anew
+         */
+        public boolean isPreserveRawPath() {
+            return preserveRawPath;
+        }
+
+        /**
+         * Builder of immutable {@link Options} instances.
+         */
+        public static class Builder {
+            private boolean lazy;
+            private final EnumSet<Field> fields = EnumSet.allOf(Field.class);
+            private HttpExchangeFilter filter;
+            private StringDictionary stringDictionary;
+            private ErrorHandler errorHandler;
+            private int spillThreshold = Integer.MAX_VALUE;
+            private Path spillDirectory;
+            private boolean preserveRawPath;
+
+            /**
+             * Set whether to decode headers, bodies and query parameters lazily.
+             *
+             * @param lazy true to decode lazily, false to decode all of the exchange up front
+             * @return this builder
+             * @see #isLazy()
+             */
+            public Options.Builder lazy(boolean lazy) {
+                this.lazy = lazy;
+                return this;
+            }
+
+            /**
+             * Set the optional fields to read, skipping all others.
+             *
+             * @param fields the fields to read
+             * @return this builder
+             * @see #getFields()
+             */
+            public Options.Builder fields(@NotNull Set<Field> fields) {
+                this.fields.clear();
+                this.fields.addAll(fields);
+                return this;
+            }
+
+            /**
+             * Skip the given optional fields when reading, in addition to any already excluded.
+             *
+             * @param fields the fields to skip
+             * @return this builder
+             * @see #getFields()
+             */
+            public Options.Builder exclude(@NotNull Field... fields) {
+                for (Field field : fields) {
+                    this.fields.remove(field);
+                }
+                return this;
+            }
+
+            /**
+             * Set the filter exchanges must match to be read.
+             *
+             * @param filter the filter, or null to read all exchanges
+             * @return this builder
+             * @see #getFilter()
+             */
+            public Options.Builder filter(@Nullable HttpExchangeFilter filter) {
+                this.filter = filter;
+                return this;
+            }
+
+            /**
+             * Set the dictionary to take canonical instances of repeated strings from.
+             *
+             * @param stringDictionary the string dictionary, which may be shared with other readers, or null to not
+             *                         deduplicate strings
+             * @return this builder
+             * @see #getStringDictionary()
+             */
+            public Options.Builder stringDictionary(@Nullable StringDictionary stringDictionary) {
+                this.stringDictionary = stringDictionary;
+                return this;
+            }
+
+            /**
+             * Set the handler of malformed lines, to skip them instead of aborting reading.
+             *
+             * @param errorHandler the error handler, or null to abort reading on the first malformed line
+             * @return this builder
+             * @see #getErrorHandler()
+             */
+            public Options.Builder errorHandler(@Nullable ErrorHandler errorHandler) {
+                this.errorHandler = errorHandler;
+                return this;
+            }
+
+            /**
+             * Set the size in bytes above which bodies are spilled to disk.
+             *
+             * @param spillThreshold the maximum size of bodies kept on the heap
+             * @return this builder
+             * @see #getSpillThreshold()
+             */
+            public Options.Builder spillThreshold(int spillThreshold) {
+                if (spillThreshold < 0) {
+                    throw new IllegalArgumentException("Invalid spill threshold: " + spillThreshold);
+                }
+                this.spillThreshold = spillThreshold;
+                return this;
+            }
+
+            /**
+             * Set the directory where bodies larger than the spill threshold are written.
+             *
+             * @param spillDirectory the directory for spilled bodies, or null for the default temporary directory
+             * @return this builder
+             * @see #getSpillDirectory()
+             */
+            public Options.Builder spillDirectory(@Nullable Path spillDirectory) {
+                this.spillDirectory = spillDirectory;
+                return this;
+            }
+
+            /**
+             * Set whether to keep the "path" field of records as read.
+             *
+             * @param preserveRawPath true to keep the path as read, false to encode the query parameters anew
+             * @return this builder
+             * @see #isPreserveRawPath()
+             */
+            public Options.Builder preserveRawPath(boolean preserveRawPath) {
+                this.preserveRawPath = preserveRawPath;
+                return this;
+            }
+
+            /**
+             * Create reader options using the properties set on this builder.
+             *
+             * @return the built instance
+             */
+            public Options build() {
+                return new Options(lazy, EnumSet.copyOf(fields), filter, stringDictionary, errorHandler, spillThreshold, spillDirectory, preserveRawPath);
+            }
+
+        }
+
+    }
+
 }
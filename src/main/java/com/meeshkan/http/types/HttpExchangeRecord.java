@@ -0,0 +1,77 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * HTTP exchange read from a http-types JSON Lines file, together with where it is in the file.
+ * <p>
+ * The {@link #getNextOffset() next offset} is a checkpoint: reading the file again from it with
+ * {@link HttpExchangeReader#fromJsonLines(java.nio.file.Path, long, HttpExchangeReader.Options)} continues with the
+ * exchanges after this one, without parsing the ones before.
+ */
+public final class HttpExchangeRecord {
+    @NotNull
+    private final HttpExchange exchange;
+    private final long offset;
+    private final long nextOffset;
+
+    HttpExchangeRecord(@NotNull HttpExchange exchange, long offset, long nextOffset) {
+        this.exchange = exchange;
+        this.offset = offset;
+        this.nextOffset = nextOffset;
+    }
+
+    /**
+     * @return the HTTP exchange read
+     */
+    @NotNull
+    public HttpExchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * The byte offset in the file where the line of the exchange starts.
+     *
+     * @return the offset of the exchange
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The byte offset in the file right after the line of the exchange, where reading continues with the next
+     * exchange.
+     *
+     * @return the offset after the exchange
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HttpExchangeRecord that = (HttpExchangeRecord) o;
+        return offset == that.offset &&
+                nextOffset == that.nextOffset &&
+                exchange.equals(that.exchange);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exchange, offset, nextOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpExchangeRecord{" +
+                "exchange=" + exchange +
+                ", offset=" + offset +
+                ", nextOffset=" + nextOffset +
+                '}';
+    }
+
+}
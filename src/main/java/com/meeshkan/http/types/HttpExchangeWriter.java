@@ -1,24 +1,43 @@
 package com.meeshkan.http.types;
 
 import org.jetbrains.annotations.NotNull;
-import org.json.JSONWriter;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.zip.Deflater;
 
 /**
  * Writer of {@link HttpExchange HTTP exchanges} in the <a href="https://meeshkan.github.io/http-types/">HTTP Types JSON Lines format</a>.
  * <p>
  * Output written using this writer can be read back using a {@link HttpExchangeReader}.
+ * <p>
+ * With {@link Options#isGzip() GZIP enabled} the output is GZIP compressed, as a sequence of independently
+ * decompressible members each holding whole lines. A {@link HttpExchangeReader} reading such a file decompresses and
+ * parses the members in parallel, while any GZIP tool reads it as a single file.
+ * <p>
+ * Bodies {@link HttpExchangeReader.Options#getSpillThreshold() spilled to disk} by a reader are streamed to
+ * uncompressed output in chunks, without copying them to the heap. GZIP members hold whole records, which are
+ * buffered until the member is written.
  */
-public final class HttpExchangeWriter implements Closeable {
+public final class HttpExchangeWriter implements Closeable, Flushable {
+    /**
+     * Number of encoded bytes buffered before writing them to the output.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Encoders used by {@link #toJson(HttpExchange, ByteBuffer)}, kept per thread unless grown beyond this size by
+     * large exchanges.
+     */
+    private static final int MAX_CACHED_ENCODER_SIZE = BUFFER_SIZE * 8;
+    private static final ThreadLocal<HttpExchangeEncoder> ENCODERS = new ThreadLocal<>();
+
     @NotNull
-    private final BufferedWriter bufferedWriter;
+    private final OutputStream out;
+    private final Options options;
+    private final HttpExchangeEncoder encoder;
+    private final GzipMemberWriter gzip;
+    private int memberRecords;
     boolean first = true;
 
     /**
@@ -27,7 +46,26 @@ public final class HttpExchangeWriter implements Closeable {
      * @param out Output where to write the serialized HTTP exchanges
      */
     public HttpExchangeWriter(@NotNull OutputStream out) {
-        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this(out, Options.DEFAULT);
+    }
+
+    /**
+     * Creates a HTTP exchange writer that uses the specified output stream.
+     *
+     * @param out     Output where to write the serialized HTTP exchanges
+     * @param options the options of the writer
+     */
+    public HttpExchangeWriter(@NotNull OutputStream out, @NotNull Options options) {
+        this.out = out;
+        this.options = options;
+        if (options.isGzip()) {
+            this.encoder = new HttpExchangeEncoder(options.getGzipMemberSize() + BUFFER_SIZE);
+            this.gzip = new GzipMemberWriter(options.getGzipLevel());
+        } else {
+            this.encoder = new HttpExchangeEncoder(BUFFER_SIZE * 2);
+            this.encoder.streamTo(out);
+            this.gzip = null;
+        }
     }
 
     /**
@@ -36,11 +74,7 @@ public final class HttpExchangeWriter implements Closeable {
      * @param out Output where to write the serialized HTTP exchanges
      */
     public HttpExchangeWriter(@NotNull Writer out) {
-        if (out instanceof BufferedWriter) {
-            this.bufferedWriter = (BufferedWriter) out;
-        } else {
-            this.bufferedWriter = new BufferedWriter(out);
-        }
+        this(new WriterOutputStream(out));
     }
 
     /**
@@ -53,66 +87,64 @@ public final class HttpExchangeWriter implements Closeable {
         if (first) {
             first = false;
         } else {
-            try {
-                bufferedWriter.write('\n');
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            encoder.writeByte('\n');
         }
-        JSONWriter writer = new JSONWriter(this.bufferedWriter);
-        writer.object(); // Start main object.
-
-        HttpRequest request = exchange.getRequest();
-        writer.key("request");
-        writer.object();
-        Instant requestTimestamp = request.getTimestamp();
-        if (requestTimestamp != null) {
-            writer.key("timestamp").value(DateTimeFormatter.ISO_INSTANT.format(requestTimestamp));
-        }
-        writer.key("protocol").value(request.getUrl().getProtocol().name().toLowerCase());
-        writer.key("method").value(request.getMethod().name().toLowerCase());
-        writer.key("headers");
-        writer.object();
-        for (Map.Entry<String, List<String>> entry : request.getHeaders().asMap().entrySet()) {
-            writer.key(entry.getKey()).value(entry.getValue());
-        }
-        writer.endObject();
-        HttpUrl url = request.getUrl();
-        writer.key("pathname").value(url.getPathname());
-        writer.key("host").value(url.getHost());
-        if (!url.getQueryParameters().isEmpty()) {
-            writer.key("query");
-            writer.object();
-            for (Map.Entry<String, List<String>> entry : url.getQueryParameters().entrySet()) {
-                writer.key(entry.getKey()).value(entry.getValue());
+        encoder.encode(exchange);
+        try {
+            if (gzip == null) {
+                if (encoder.size() >= BUFFER_SIZE) {
+                    writeBuffer();
+                }
+            } else if (++memberRecords >= options.getGzipMemberRecords() || encoder.size() >= options.getGzipMemberSize()) {
+                writeBuffer();
             }
-            writer.endObject();
-        }
-        if (request.getBody() != null) {
-            writer.key("body").value(request.getBody());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        writer.endObject();
-
-        HttpResponse response = exchange.getResponse();
-        writer.key("response");
-        writer.object(); // Start response.
-        Instant responseTimestamp = response.getTimestamp();
-        if (responseTimestamp != null) {
-            writer.key("timestamp").value(DateTimeFormatter.ISO_INSTANT.format(responseTimestamp));
+    }
+
+    private void writeBuffer() throws IOException {
+        if (gzip == null) {
+            encoder.writeTo(out);
+        } else {
+            // Members end after a line, the line feed separating it from the next one starting the next member.
+            gzip.write(encoder.array(), 0, encoder.size(), out);
+            memberRecords = 0;
         }
-        writer.key("statusCode").value(response.getStatusCode());
-        writer.key("headers");
-        writer.object(); // Start headers.
-        for (Map.Entry<String, List<String>> entry : response.getHeaders().asMap().entrySet()) {
-            writer.key(entry.getKey()).value(entry.getValue());
+        encoder.reset();
+    }
+
+    /**
+     * Encodes a HTTP exchange as UTF-8 JSON into a buffer, for instance to send it as a message, without going through
+     * a string or stream.
+     * <p>
+     * The JSON is put at the position of the buffer, which is advanced past it. No line feed is added: to build JSON
+     * Lines, put a line feed between exchanges. The result can be read back with
+     * {@link HttpExchangeReader#fromJson(ByteBuffer)}.
+     *
+     * @param exchange The HTTP exchange to write
+     * @param out      the buffer to write to, which may be a direct buffer
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the JSON does not fit in the remaining space of the buffer, in
+     *                                          which case nothing is written
+     */
+    public static int toJson(@NotNull HttpExchange exchange, @NotNull ByteBuffer out) {
+        HttpExchangeEncoder encoder = ENCODERS.get();
+        if (encoder == null) {
+            encoder = new HttpExchangeEncoder(BUFFER_SIZE);
+            ENCODERS.set(encoder);
         }
-        writer.endObject(); // End headers.
-        if (response.getBody() != null) {
-            writer.key("body").value(response.getBody());
+        try {
+            encoder.encode(exchange);
+            encoder.writeTo(out);
+            return encoder.size();
+        } finally {
+            if (encoder.array().length > MAX_CACHED_ENCODER_SIZE) {
+                ENCODERS.remove();
+            } else {
+                encoder.reset();
+            }
         }
-        writer.endObject(); // End response.
-
-        writer.endObject(); // End main object.
     }
 
     /**
@@ -127,12 +159,172 @@ public final class HttpExchangeWriter implements Closeable {
         }
     }
 
+    /**
+     * Writes the buffered exchanges to the output and flushes it, for instance for a {@link TailingHttpExchangeReader}
+     * following the output to see them. With GZIP enabled this also ends the current member.
+     *
+     * @throws IOException if writing to the output fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if (encoder.size() > 0) {
+            writeBuffer();
+        }
+        out.flush();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void close() throws IOException {
-        bufferedWriter.close();
+        try {
+            // An empty GZIP member keeps a GZIP output without exchanges valid.
+            if (encoder.size() > 0 || gzip != null && first) {
+                writeBuffer();
+            }
+        } finally {
+            if (gzip != null) {
+                gzip.end();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Options of a {@link HttpExchangeWriter}.
+     */
+    public static final class Options {
+        /**
+         * The options used by the constructors not taking any options.
+         */
+        public static final Options DEFAULT = new Options.Builder().build();
+
+        private final boolean gzip;
+        private final int gzipLevel;
+        private final int gzipMemberRecords;
+        private final int gzipMemberSize;
+
+        private Options(boolean gzip, int gzipLevel, int gzipMemberRecords, int gzipMemberSize) {
+            this.gzip = gzip;
+            this.gzipLevel = gzipLevel;
+            this.gzipMemberRecords = gzipMemberRecords;
+            this.gzipMemberSize = gzipMemberSize;
+        }
+
+        /**
+         * Whether the output is GZIP compressed, false by default.
+         *
+         * @return true if the output is compressed
+         */
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        /**
+         * The compression level from 0 to 9, or -1 for the default compression of {@link Deflater}.
+         *
+         * @return the compression level
+         */
+        public int getGzipLevel() {
+            return gzipLevel;
+        }
+
+        /**
+         * The number of exchanges after which a GZIP member ends and a new one starts, 10000 by default.
+         *
+         * @return the maximum number of exchanges per member
+         */
+        public int getGzipMemberRecords() {
+            return gzipMemberRecords;
+        }
+
+        /**
+         * The uncompressed size in bytes after which a GZIP member ends and a new one starts, at the end of the
+         * exchange reaching it, 1 MiB by default. Larger members compress slightly better, smaller ones leave more
+         * work to share between threads reading them.
+         *
+         * @return the approximate maximum uncompressed size of a member
+         */
+        public int getGzipMemberSize() {
+            return gzipMemberSize;
+        }
+
+        /**
+         * Builder of immutable {@link Options} instances.
+         */
+        public static class Builder {
+            private boolean gzip;
+            private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+            private int gzipMemberRecords = 10_000;
+            private int gzipMemberSize = 1 << 20;
+
+            /**
+             * Set whether the output is GZIP compressed.
+             *
+             * @param gzip true to compress the output
+             * @return this builder
+             * @see #isGzip()
+             */
+            public Options.Builder gzip(boolean gzip) {
+                this.gzip = gzip;
+                return this;
+            }
+
+            /**
+             * Set the compression level.
+             *
+             * @param gzipLevel the compression level from 0 to 9, or -1 for the default
+             * @return this builder
+             * @see #getGzipLevel()
+             */
+            public Options.Builder gzipLevel(int gzipLevel) {
+                if (gzipLevel < -1 || gzipLevel > 9) {
+                    throw new IllegalArgumentException("Invalid compression level: " + gzipLevel);
+                }
+                this.gzipLevel = gzipLevel;
+                return this;
+            }
+
+            /**
+             * Set the number of exchanges after which a GZIP member ends.
+             *
+             * @param gzipMemberRecords the maximum number of exchanges per member
+             * @return this builder
+             * @see #getGzipMemberRecords()
+             */
+            public Options.Builder gzipMemberRecords(int gzipMemberRecords) {
+                if (gzipMemberRecords < 1) {
+                    throw new IllegalArgumentException("Invalid number of records per member: " + gzipMemberRecords);
+                }
+                this.gzipMemberRecords = gzipMemberRecords;
+                return this;
+            }
+
+            /**
+             * Set the uncompressed size in bytes after which a GZIP member ends.
+             *
+             * @param gzipMemberSize the approximate maximum uncompressed size of a member
+             * @return this builder
+             * @see #getGzipMemberSize()
+             */
+            public Options.Builder gzipMemberSize(int gzipMemberSize) {
+                if (gzipMemberSize < 1 || gzipMemberSize > 1 << 30) {
+                    throw new IllegalArgumentException("Invalid member size: " + gzipMemberSize);
+                }
+                this.gzipMemberSize = gzipMemberSize;
+                return this;
+            }
+
+            /**
+             * Create writer options using the properties set on this builder.
+             *
+             * @return the built instance
+             */
+            public Options build() {
+                return new Options(gzip, gzipLevel, gzipMemberRecords, gzipMemberSize);
+            }
+        }
     }
 
 }
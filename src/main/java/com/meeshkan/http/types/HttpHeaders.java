@@ -7,12 +7,53 @@ import java.util.*;
 
 /**
  * HTTP request or response headers.
+ * <p>
+ * Headers are kept as flat arrays of names and values in the order they were added, with names in lower case. Lookups
+ * scan the names, comparing precomputed hashes first and folding the case of the given name as they go, so they
+ * allocate nothing. For the few headers of a typical exchange this is faster and smaller than a map of lists. A name
+ * added without any values is kept as a single entry with a null value, so that it is still in {@link #asMap()}.
+ * <p>
+ * Headers with a {@link KnownHeader known name} are also indexed by it, so that looking them up with
+ * {@link #getFirst(KnownHeader)} or {@link #getAll(KnownHeader)} goes straight to the first value.
  */
 public class HttpHeaders {
-    private final Map<String, List<String>> headerMap;
+    private static final String[] NO_STRINGS = new String[0];
+    private static final int[] NO_HASHES = new int[0];
 
-    private HttpHeaders(Map<String, List<String>> headerMap) {
-        this.headerMap = Collections.unmodifiableMap(headerMap);
+    /**
+     * Returned by {@link #foldedHash(String)} for names which are not all ASCII.
+     */
+    private static final int NON_ASCII = 0;
+    /**
+     * Index of known headers found after {@link #MAX_INDEXED} others, where a lookup scans on from there instead.
+     */
+    private static final int MAX_INDEXED = 254;
+    private static final byte[] NO_KNOWN = new byte[KnownHeader.NAMES.length];
+
+    private final String[] names;
+    /**
+     * The values of {@link #names}, or null for names added without values.
+     */
+    private final String[] values;
+    /**
+     * The hash codes of {@link #names}.
+     */
+    private final int[] hashes;
+    /**
+     * For each {@link KnownHeader} by ordinal, 1 + the index of its first value, or 0 if none. Indexes above
+     * {@link #MAX_INDEXED} are stored as 1 + MAX_INDEXED.
+     */
+    private final byte[] known;
+    /**
+     * The map view, built on first use - racing threads build equal maps.
+     */
+    private Map<String, List<String>> map;
+
+    private HttpHeaders(String[] names, String[] values, int[] hashes, byte[] known) {
+        this.names = names;
+        this.values = values;
+        this.hashes = hashes;
+        this.known = known;
     }
 
     /**
@@ -23,12 +64,17 @@ public class HttpHeaders {
      */
     @Nullable
     public String getFirst(@NotNull String headerName) {
-        headerName = headerName.toLowerCase();
-        List<String> list = headerMap.get(headerName);
-        if (list == null || list.isEmpty()) {
-            return null;
+        int hash = foldedHash(headerName);
+        if (hash == NON_ASCII) {
+            headerName = lowerCase(headerName);
+            hash = headerName.hashCode();
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (hashes[i] == hash && values[i] != null && equalsFolded(names[i], headerName)) {
+                return values[i];
+            }
         }
-        return list.get(0);
+        return null;
     }
 
     /**
@@ -39,21 +85,153 @@ public class HttpHeaders {
      */
     @NotNull
     public List<String> getAll(@NotNull String headerName) {
-        headerName = headerName.toLowerCase();
-        List<String> list = headerMap.get(headerName);
-        if (list == null) {
+        int hash = foldedHash(headerName);
+        if (hash == NON_ASCII) {
+            headerName = lowerCase(headerName);
+            hash = headerName.hashCode();
+        }
+        String first = null;
+        List<String> all = null;
+        for (int i = 0; i < names.length; i++) {
+            if (hashes[i] == hash && values[i] != null && equalsFolded(names[i], headerName)) {
+                if (first == null) {
+                    first = values[i];
+                } else {
+                    if (all == null) {
+                        all = new ArrayList<>();
+                        all.add(first);
+                    }
+                    all.add(values[i]);
+                }
+            }
+        }
+        if (all != null) {
+            return Collections.unmodifiableList(all);
+        }
+        return first == null ? Collections.emptyList() : Collections.singletonList(first);
+    }
+
+    /**
+     * Return the first header value for the given known header, if any.
+     *
+     * @param header the known header
+     * @return the first header value, or null if none
+     * @see #getFirst(String)
+     */
+    @Nullable
+    public String getFirst(@NotNull KnownHeader header) {
+        int start = firstIndex(header);
+        if (start < 0) {
+            return null;
+        }
+        String name = header.getName();
+        for (int i = start; i < names.length; i++) {
+            if (names[i] == name && values[i] != null) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * All header values for the given known header.
+     *
+     * @param header the known header
+     * @return an immutable list of header values, or an empty list if none
+     * @see #getAll(String)
+     */
+    @NotNull
+    public List<String> getAll(@NotNull KnownHeader header) {
+        int start = firstIndex(header);
+        if (start < 0) {
             return Collections.emptyList();
         }
-        return Collections.unmodifiableList(list);
+        String name = header.getName();
+        String first = null;
+        List<String> all = null;
+        for (int i = start; i < names.length; i++) {
+            if (names[i] == name && values[i] != null) {
+                if (first == null) {
+                    first = values[i];
+                } else {
+                    if (all == null) {
+                        all = new ArrayList<>();
+                        all.add(first);
+                    }
+                    all.add(values[i]);
+                }
+            }
+        }
+        if (all != null) {
+            return Collections.unmodifiableList(all);
+        }
+        return first == null ? Collections.emptyList() : Collections.singletonList(first);
+    }
+
+    /**
+     * The index of the first value of the known header, or of where to start looking for it, or -1 if none.
+     */
+    private int firstIndex(KnownHeader header) {
+        return (known[header.ordinal()] & 0xff) - 1;
     }
 
     /**
      * Header values as a map from header names to a list of header values.
+     * <p>
+     * The map is built on first use, in the order the header names were first added.
      *
-     * @return the HTTP headers as a map
+     * @return the HTTP headers as an immutable map
      */
     public Map<String, List<String>> asMap() {
-        return headerMap;
+        Map<String, List<String>> map = this.map;
+        if (map == null) {
+            Map<String, List<String>> grouped = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                List<String> list = grouped.computeIfAbsent(names[i], k -> new ArrayList<>());
+                if (values[i] != null) {
+                    list.add(values[i]);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : grouped.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            map = Collections.unmodifiableMap(grouped);
+            this.map = map;
+        }
+        return map;
+    }
+
+    /**
+     * The number of header values, including the null values of names added without values.
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * The lower case name of the header value at the given index.
+     */
+    String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * The header value at the given index, or null for a name added without values.
+     */
+    String value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Whether the header value at the given index is the first one with its name.
+     */
+    boolean isFirstOfName(int index) {
+        for (int i = 0; i < index; i++) {
+            if (hashes[i] == hashes[index] && names[i].equals(names[index])) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -61,24 +239,94 @@ public class HttpHeaders {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         HttpHeaders that = (HttpHeaders) o;
-        return headerMap.equals(that.headerMap);
+        return asMap().equals(that.asMap());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(headerMap);
+        return Objects.hash(asMap());
     }
 
     @Override
     public String toString() {
-        return "HttpHeaders{" + headerMap + '}';
+        return "HttpHeaders{" + asMap() + '}';
+    }
+
+    /**
+     * The hash code of the name in lower case, or {@link #NON_ASCII} if it has other than ASCII characters, or
+     * happens to have that hash code.
+     */
+    private static int foldedHash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return NON_ASCII;
+            }
+            hash = 31 * hash + toLowerCase(c);
+        }
+        return hash;
+    }
+
+    /**
+     * Whether the lower case name equals the other name with ASCII letters folded to lower case.
+     */
+    private static boolean equalsFolded(String lowerCaseName, String name) {
+        if (lowerCaseName.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (lowerCaseName.charAt(i) != toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * The name in lower case, which is the same instance if it already is. Only ASCII letters are folded in names
+     * which are all ASCII, whatever the default locale.
+     */
+    private static String lowerCase(String name) {
+        char[] folded = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return name.toLowerCase();
+            } else if (c >= 'A' && c <= 'Z') {
+                if (folded == null) {
+                    folded = name.toCharArray();
+                }
+                folded[i] = toLowerCase(c);
+            }
+        }
+        return folded == null ? name : new String(folded);
     }
 
     /**
      * Builder of immutable {@link HttpHeaders} instances.
      */
     public static class Builder {
-        private final Map<String, List<String>> headerMap = new HashMap<>();
+        private String[] names = NO_STRINGS;
+        private String[] values = NO_STRINGS;
+        private int[] hashes = NO_HASHES;
+        private byte[] known = NO_KNOWN;
+        private int size;
+
+        /**
+         * Add the given, single header value under the given known header name.
+         *
+         * @param header      the known header
+         * @param headerValue the header value
+         * @return this builder
+         */
+        public HttpHeaders.Builder add(@NotNull KnownHeader header, @NotNull String headerValue) {
+            return add(header.getName(), headerValue);
+        }
 
         /**
          * Add the given, single header value under the given name.
@@ -88,23 +336,50 @@ public class HttpHeaders {
          * @return this builder
          */
         public HttpHeaders.Builder add(@NotNull String headerName, @NotNull String headerValue) {
-            headerName = headerName.toLowerCase();
-            List<String> list = headerMap.computeIfAbsent(headerName, k -> new ArrayList<>());
-            list.add(headerValue);
+            return addEntry(lowerCase(headerName), headerValue);
+        }
+
+        private HttpHeaders.Builder addEntry(String headerName, String headerValue) {
+            if (size == names.length) {
+                int capacity = Math.max(8, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            KnownHeader header = KnownHeader.forName(headerName);
+            if (header != null) {
+                // The same instance for all values of the name, so that lookups by known header compare references.
+                headerName = header.getName();
+                if (known[header.ordinal()] == 0) {
+                    if (known == NO_KNOWN) {
+                        known = new byte[NO_KNOWN.length];
+                    }
+                    known[header.ordinal()] = (byte) (Math.min(size, MAX_INDEXED) + 1);
+                }
+            }
+            names[size] = headerName;
+            values[size] = headerValue;
+            hashes[size] = headerName.hashCode();
+            size++;
             return this;
         }
 
         /**
-         * Add a collection of header values under the given name.
+         * Add a collection of header values under the given name, which is kept even if the collection is empty.
          *
          * @param headerName   the header name
          * @param headerValues the header values
          * @return this builder
          */
         public HttpHeaders.Builder addAll(@NotNull String headerName, @NotNull Collection<String> headerValues) {
-            headerName = headerName.toLowerCase();
-            List<String> list = headerMap.computeIfAbsent(headerName, k -> new ArrayList<>());
-            list.addAll(headerValues);
+            headerName = lowerCase(headerName);
+            if (headerValues.isEmpty()) {
+                // Keep the name, with an empty list of values in the map.
+                return addEntry(headerName, null);
+            }
+            for (String headerValue : headerValues) {
+                addEntry(headerName, headerValue);
+            }
             return this;
         }
 
@@ -114,7 +389,8 @@ public class HttpHeaders {
          * @return the built instance
          */
         public HttpHeaders build() {
-            return new HttpHeaders(this.headerMap);
+            return new HttpHeaders(Arrays.copyOf(names, size), Arrays.copyOf(values, size), Arrays.copyOf(hashes, size),
+                    known == NO_KNOWN ? NO_KNOWN : known.clone());
         }
 
     }
@@ -3,6 +3,8 @@ package com.meeshkan.http.types;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Objects;
 
@@ -16,12 +18,13 @@ public final class HttpRequest {
     private final HttpUrl url;
     @NotNull
     private final HttpMethod method;
-    @NotNull
-    private final HttpHeaders headers;
+    private HttpHeaders headers;
+    @Nullable
+    private final LazyJsonValue lazyHeaders;
     @Nullable
     private final Instant timestamp;
     @Nullable
-    private final String body;
+    private final HttpBody body;
 
     /**
      * Time at which the HTTP request was initiated.
@@ -60,23 +63,70 @@ public final class HttpRequest {
      */
     @NotNull
     public HttpHeaders getHeaders() {
+        HttpHeaders headers = this.headers;
+        if (headers == null) {
+            // Decode lazily read headers on first access - racing threads decode equal instances.
+            headers = lazyHeaders.decodeHeaders();
+            this.headers = headers;
+        }
         return headers;
     }
 
     /**
      * Body string of this HTTP request.
+     * <p>
+     * Bodies read by a {@link HttpExchangeReader} are kept as bytes and only decoded by the first call.
      *
      * @return the body string of this request, or null if none
+     * @see #getBodyBytes()
      */
     @Nullable
     public String getBody() {
+        return body == null ? null : body.string();
+    }
+
+    /**
+     * Body of this HTTP request as UTF-8 encoded bytes, without decoding it to a string.
+     * <p>
+     * A body spilled to disk is returned as a buffer mapped from its file, without copying it to the heap.
+     *
+     * @return a read-only buffer of the body bytes of this request, or null if none
+     * @see #getBody()
+     */
+    @Nullable
+    public ByteBuffer getBodyBytes() {
+        return body == null ? null : body.asReadOnlyBuffer();
+    }
+
+    /**
+     * Body of this HTTP request as a stream of UTF-8 encoded bytes, for reading large bodies without holding all of them
+     * on the heap at once.
+     * <p>
+     * Each call opens a new stream from the start of the body. Bodies spilled to disk, see
+     * {@link HttpExchangeReader.Options#getSpillThreshold()}, are streamed from their memory mapped file.
+     *
+     * @return a stream of the body bytes of this request, or null if none
+     * @see #getBodyBytes()
+     */
+    @Nullable
+    public InputStream getBodyStream() {
+        return body == null ? null : body.stream();
+    }
+
+    @Nullable
+    HttpBody body() {
         return body;
     }
 
     HttpRequest(@NotNull HttpUrl url, @NotNull HttpMethod method, @NotNull HttpHeaders headers, @Nullable String body, @Nullable Instant timestamp) {
+        this(url, method, headers, null, HttpBody.ofString(body), timestamp);
+    }
+
+    private HttpRequest(@NotNull HttpUrl url, @NotNull HttpMethod method, @Nullable HttpHeaders headers, @Nullable LazyJsonValue lazyHeaders, @Nullable HttpBody body, @Nullable Instant timestamp) {
         this.url = url;
         this.method = method;
         this.headers = headers;
+        this.lazyHeaders = lazyHeaders;
         this.body = body;
         this.timestamp = timestamp;
     }
@@ -86,9 +136,9 @@ public final class HttpRequest {
         return "HttpRequest{" +
                 "url=" + url +
                 ", method=" + method +
-                ", headers=" + headers +
+                ", headers=" + getHeaders() +
                 ", timestamp=" + timestamp +
-                ", body='" + body + '\'' +
+                ", body='" + getBody() + '\'' +
                 '}';
     }
 
@@ -99,14 +149,14 @@ public final class HttpRequest {
         HttpRequest that = (HttpRequest) o;
         return url.equals(that.url) &&
                 method == that.method &&
-                headers.equals(that.headers) &&
+                getHeaders().equals(that.getHeaders()) &&
                 Objects.equals(timestamp, that.timestamp) &&
                 Objects.equals(body, that.body);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(url, method, headers, timestamp, body);
+        return Objects.hash(url, method, getHeaders(), timestamp, body);
     }
 
     /**
@@ -116,7 +166,8 @@ public final class HttpRequest {
         private HttpUrl url;
         private HttpMethod method;
         private HttpHeaders headers;
-        private String body;
+        private LazyJsonValue lazyHeaders;
+        private HttpBody body;
         private Instant timestamp;
 
         /**
@@ -127,10 +178,40 @@ public final class HttpRequest {
          * @see #getBody()
          */
         public HttpRequest.Builder body(String body) {
+            this.body = HttpBody.ofString(body);
+            return this;
+        }
+
+        /**
+         * Set the body of the HTTP request to build as UTF-8 encoded bytes, for instance to pass on the body of another
+         * request without decoding it.
+         *
+         * @param body the bytes remaining in the buffer, which are copied without changing its position, or null for
+         *             no body
+         * @return this builder
+         * @see #getBodyBytes()
+         */
+        public HttpRequest.Builder bodyBytes(@Nullable ByteBuffer body) {
+            if (body == null) {
+                this.body = null;
+            } else {
+                byte[] bytes = new byte[body.remaining()];
+                body.duplicate().get(bytes);
+                this.body = HttpBody.ofBytes(bytes);
+            }
+            return this;
+        }
+
+        HttpRequest.Builder httpBody(HttpBody body) {
             this.body = body;
             return this;
         }
 
+        HttpRequest.Builder lazyBody(LazyJsonValue lazyBody) {
+            this.body = HttpBody.ofLazy(lazyBody);
+            return this;
+        }
+
         /**
          * Set the URL part of the HTTP request to build.
          *
@@ -152,6 +233,13 @@ public final class HttpRequest {
          */
         public HttpRequest.Builder headers(HttpHeaders headers) {
             this.headers = headers;
+            this.lazyHeaders = null;
+            return this;
+        }
+
+        HttpRequest.Builder lazyHeaders(LazyJsonValue lazyHeaders) {
+            this.headers = null;
+            this.lazyHeaders = lazyHeaders;
             return this;
         }
 
@@ -187,7 +275,10 @@ public final class HttpRequest {
         public HttpRequest build() {
             Assert.assertNotNull("url", url);
             Assert.assertNotNull("method", method);
-            return new HttpRequest(url, method, headers == null ? new HttpHeaders.Builder().build() : headers, body, timestamp);
+            if (lazyHeaders != null) {
+                return new HttpRequest(url, method, null, lazyHeaders, body, timestamp);
+            }
+            return new HttpRequest(url, method, headers == null ? new HttpHeaders.Builder().build() : headers, null, body, timestamp);
         }
 
     }
@@ -3,6 +3,8 @@ package com.meeshkan.http.types;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Objects;
 
@@ -13,10 +15,11 @@ import java.util.Objects;
  */
 public final class HttpResponse {
     @Nullable
-    private final String body;
+    private final HttpBody body;
     private final int statusCode;
-    @NotNull
-    private final HttpHeaders headers;
+    private HttpHeaders headers;
+    @Nullable
+    private final LazyJsonValue lazyHeaders;
     @Nullable
     private final Instant timestamp;
 
@@ -41,32 +44,75 @@ public final class HttpResponse {
      */
     @NotNull
     public HttpHeaders getHeaders() {
+        HttpHeaders headers = this.headers;
+        if (headers == null) {
+            // Decode lazily read headers on first access - racing threads decode equal instances.
+            headers = lazyHeaders.decodeHeaders();
+            this.headers = headers;
+        }
         return headers;
     }
 
     /**
      * Body string of this HTTP response.
+     * <p>
+     * Bodies read by a {@link HttpExchangeReader} are kept as bytes and only decoded by the first call.
      *
      * @return the body string of this response, or null if none
+     * @see #getBodyBytes()
      */
     @Nullable
     public String getBody() {
+        return body == null ? null : body.string();
+    }
+
+    /**
+     * Body of this HTTP response as UTF-8 encoded bytes, without decoding it to a string.
+     * <p>
+     * A body spilled to disk is returned as a buffer mapped from its file, without copying it to the heap.
+     *
+     * @return a read-only buffer of the body bytes of this response, or null if none
+     * @see #getBody()
+     */
+    @Nullable
+    public ByteBuffer getBodyBytes() {
+        return body == null ? null : body.asReadOnlyBuffer();
+    }
+
+    /**
+     * Body of this HTTP response as a stream of UTF-8 encoded bytes, for reading large bodies without holding all of them
+     * on the heap at once.
+     * <p>
+     * Each call opens a new stream from the start of the body. Bodies spilled to disk, see
+     * {@link HttpExchangeReader.Options#getSpillThreshold()}, are streamed from their memory mapped file.
+     *
+     * @return a stream of the body bytes of this response, or null if none
+     * @see #getBodyBytes()
+     */
+    @Nullable
+    public InputStream getBodyStream() {
+        return body == null ? null : body.stream();
+    }
+
+    @Nullable
+    HttpBody body() {
         return body;
     }
 
-    private HttpResponse(@Nullable String body, int statusCode, @NotNull HttpHeaders headers, @Nullable Instant timestamp) {
+    private HttpResponse(@Nullable HttpBody body, int statusCode, @Nullable HttpHeaders headers, @Nullable LazyJsonValue lazyHeaders, @Nullable Instant timestamp) {
         this.body = body;
         this.statusCode = statusCode;
         this.headers = headers;
+        this.lazyHeaders = lazyHeaders;
         this.timestamp = timestamp;
     }
 
     @Override
     public String toString() {
         return "HttpResponse{" +
-                "body='" + body + '\'' +
+                "body='" + getBody() + '\'' +
                 ", statusCode=" + statusCode +
-                ", headers=" + headers +
+                ", headers=" + getHeaders() +
                 ", timestamp=" + timestamp +
                 '}';
     }
@@ -78,22 +124,23 @@ public final class HttpResponse {
         HttpResponse that = (HttpResponse) o;
         return statusCode == that.statusCode &&
                 Objects.equals(body, that.body) &&
-                headers.equals(that.headers) &&
+                getHeaders().equals(that.getHeaders()) &&
                 Objects.equals(timestamp, that.timestamp);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(body, statusCode, headers, timestamp);
+        return Objects.hash(body, statusCode, getHeaders(), timestamp);
     }
 
     /**
      * Builder of immutable {@link HttpResponse} instances.
      */
     public static class Builder {
-        private String body;
+        private HttpBody body;
         private int statusCode;
         private HttpHeaders headers;
+        private LazyJsonValue lazyHeaders;
         private Instant timestamp;
 
         /**
@@ -104,10 +151,40 @@ public final class HttpResponse {
          * @see #getBody()
          */
         public Builder body(String body) {
+            this.body = HttpBody.ofString(body);
+            return this;
+        }
+
+        /**
+         * Set the body of the HTTP response to build as UTF-8 encoded bytes, for instance to pass on the body of another
+         * response without decoding it.
+         *
+         * @param body the bytes remaining in the buffer, which are copied without changing its position, or null for
+         *             no body
+         * @return this builder
+         * @see #getBodyBytes()
+         */
+        public Builder bodyBytes(@Nullable ByteBuffer body) {
+            if (body == null) {
+                this.body = null;
+            } else {
+                byte[] bytes = new byte[body.remaining()];
+                body.duplicate().get(bytes);
+                this.body = HttpBody.ofBytes(bytes);
+            }
+            return this;
+        }
+
+        Builder httpBody(HttpBody body) {
             this.body = body;
             return this;
         }
 
+        Builder lazyBody(LazyJsonValue lazyBody) {
+            this.body = HttpBody.ofLazy(lazyBody);
+            return this;
+        }
+
         /**
          * Set the status code on the HTTP response to build.
          *
@@ -129,6 +206,13 @@ public final class HttpResponse {
          */
         public Builder headers(HttpHeaders headers) {
             this.headers = headers;
+            this.lazyHeaders = null;
+            return this;
+        }
+
+        Builder lazyHeaders(LazyJsonValue lazyHeaders) {
+            this.headers = null;
+            this.lazyHeaders = lazyHeaders;
             return this;
         }
 
@@ -150,7 +234,10 @@ public final class HttpResponse {
          * @return the built instance
          */
         public HttpResponse build() {
-            return new HttpResponse(body, statusCode, headers == null ? new HttpHeaders.Builder().build() : headers, timestamp);
+            if (lazyHeaders != null) {
+                return new HttpResponse(body, statusCode, null, lazyHeaders, timestamp);
+            }
+            return new HttpResponse(body, statusCode, headers == null ? new HttpHeaders.Builder().build() : headers, null, timestamp);
         }
 
     }
@@ -3,11 +3,9 @@ package com.meeshkan.http.types;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -26,14 +24,47 @@ public class HttpUrl {
     private final String host;
     @NotNull
     private final String pathname;
-    @NotNull
-    private final Map<String, List<String>> queryParameters;
+    private Map<String, List<String>> queryParameters;
+    @Nullable
+    private final LazyJsonValue lazyQueryParameters;
+    /**
+     * The path name and encoded query, built on first use unless preserved as given - racing threads build equal
+     * strings.
+     */
+    private String path;
+
+    /**
+     * Characters of the query left as they are by {@link #appendEncoded(StringBuilder, String)}, by code.
+     */
+    private static final boolean[] UNRESERVED = new boolean[128];
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[c - 'a' + 'A'] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['*'] = true;
+    }
 
     public HttpUrl(@NotNull HttpProtocol protocol, @NotNull String host, @NotNull String pathname, @NotNull Map<String, List<String>> queryParameters) {
+        this(protocol, host, pathname, Collections.unmodifiableMap(queryParameters), null, null);
+    }
+
+    private HttpUrl(@NotNull HttpProtocol protocol, @NotNull String host, @NotNull String pathname, Map<String, List<String>> queryParameters,
+                    LazyJsonValue lazyQueryParameters, String path) {
         this.protocol = protocol;
         this.host = host;
         this.pathname = pathname;
-        this.queryParameters = Collections.unmodifiableMap(queryParameters);
+        this.queryParameters = queryParameters;
+        this.lazyQueryParameters = lazyQueryParameters;
+        this.path = path;
     }
 
     /**
@@ -82,33 +113,133 @@ public class HttpUrl {
      * Use {@link #getPathname()}} to get the path without any query parameters.
      * </p>
      * Example: For the URL http://example.com/a/path?q=v, this method will return "/a/path?q=v".
+     * <p>
+     * The query parameters are encoded as by {@link java.net.URLEncoder} with UTF-8, and the result is computed once
+     * per instance. For URLs built with {@link Builder#preserveRawPath(boolean)}, this is the path exactly as given to
+     * {@link Builder#path(String)} instead.
      *
      * @return the path and query part of this URL
      */
     @NotNull
     public String getPath() {
-        StringBuilder result = new StringBuilder();
-        result.append(pathname);
-        if (!queryParameters.isEmpty()) {
-            boolean first = true;
-            try {
-                for (Map.Entry<String, List<String>> entry : queryParameters.entrySet()) {
-                    String encodedName = URLEncoder.encode(entry.getKey(), "utf-8");
-                    for (String value : entry.getValue()) {
-                        if (first) {
-                            first = false;
-                            result.append('?');
-                        } else {
-                            result.append('&');
-                        }
-                        String encodedValue = URLEncoder.encode(value, "utf-8");
-                        result.append(encodedName).append('=').append(encodedValue);
-                    }
+        String path = this.path;
+        if (path == null) {
+            Map<String, List<String>> queryParameters = getQueryParameters();
+            StringBuilder result = new StringBuilder(pathname.length() + 16 * queryParameters.size());
+            result.append(pathname);
+            char separator = '?';
+            for (Map.Entry<String, List<String>> entry : queryParameters.entrySet()) {
+                for (String value : entry.getValue()) {
+                    result.append(separator);
+                    separator = '&';
+                    appendEncoded(result, entry.getKey());
+                    result.append('=');
+                    appendEncoded(result, value);
                 }
-            } catch (UnsupportedEncodingException e) {
-                // Should never happen, "utf-8" is always a supported charset.
-                // When targeting java 10 one can use URLEncoder.encode(s, StandardCharsets.UTF_8) which do not throw.
-                throw new RuntimeException(e);
+            }
+            path = result.toString();
+            this.path = path;
+        }
+        return path;
+    }
+
+    /**
+     * Append the string encoded as by {@link java.net.URLEncoder} with UTF-8: letters, digits and "-._*" are kept,
+     * spaces become '+' and all other characters are percent-encoded UTF-8 bytes, with unpaired surrogates encoded
+     * as '?'.
+     */
+    static void appendEncoded(StringBuilder result, String s) {
+        int length = s.length();
+        int start = 0;
+        while (start < length) {
+            char c = s.charAt(start);
+            if (c >= 0x80 || !UNRESERVED[c]) {
+                break;
+            }
+            start++;
+        }
+        if (start == length) {
+            result.append(s);
+            return;
+        }
+        result.append(s, 0, start);
+        for (int i = start; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    result.append(c);
+                } else if (c == ' ') {
+                    result.append('+');
+                } else {
+                    appendEscape(result, c);
+                }
+            } else if (c < 0x800) {
+                appendEscape(result, 0xc0 | (c >> 6));
+                appendEscape(result, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendEscape(result, 0xf0 | (codePoint >> 18));
+                appendEscape(result, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscape(result, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscape(result, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // The replacement of the UTF-8 encoder used by URLEncoder.
+                appendEscape(result, '?');
+            } else {
+                appendEscape(result, 0xe0 | (c >> 12));
+                appendEscape(result, 0x80 | ((c >> 6) & 0x3f));
+                appendEscape(result, 0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static void appendEscape(StringBuilder result, int b) {
+        result.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
+    }
+
+    /**
+     * Decode part of a string as by {@link java.net.URLDecoder} with UTF-8: '+' becomes a space and runs of
+     * percent-encoded bytes are decoded as UTF-8, with malformed sequences replaced.
+     *
+     * @throws IllegalArgumentException if an escape is incomplete or not hexadecimal
+     */
+    static String decode(String s, int from, int to) {
+        int i = from;
+        while (i < to && s.charAt(i) != '%' && s.charAt(i) != '+') {
+            i++;
+        }
+        if (i == to) {
+            return s.substring(from, to);
+        }
+        StringBuilder result = new StringBuilder(to - from);
+        result.append(s, from, i);
+        byte[] bytes = null;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                result.append(' ');
+                i++;
+            } else if (c == '%') {
+                if (bytes == null) {
+                    bytes = new byte[(to - i) / 3];
+                }
+                int length = 0;
+                do {
+                    if (i + 2 >= to) {
+                        throw new IllegalArgumentException("Incomplete escape (%) pattern in: " + s.substring(from, to));
+                    }
+                    int high = Character.digit(s.charAt(i + 1), 16);
+                    int low = Character.digit(s.charAt(i + 2), 16);
+                    if (high < 0 || low < 0) {
+                        throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern at index " + (i - from) + " in: " + s.substring(from, to));
+                    }
+                    bytes[length++] = (byte) (high << 4 | low);
+                    i += 3;
+                } while (i < to && s.charAt(i) == '%');
+                result.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            } else {
+                result.append(c);
+                i++;
             }
         }
         return result.toString();
@@ -123,6 +254,12 @@ public class HttpUrl {
      */
     @NotNull
     public Map<String, List<String>> getQueryParameters() {
+        Map<String, List<String>> queryParameters = this.queryParameters;
+        if (queryParameters == null) {
+            // Decode lazily read query parameters on first access - racing threads decode equal maps.
+            queryParameters = Collections.unmodifiableMap(lazyQueryParameters.decodeQuery());
+            this.queryParameters = queryParameters;
+        }
         return queryParameters;
     }
 
@@ -137,7 +274,7 @@ public class HttpUrl {
      */
     @Nullable
     public String getFirstQueryParameter(String parameterName) {
-        List<String> currentList = queryParameters.get(parameterName);
+        List<String> currentList = getQueryParameters().get(parameterName);
         if (currentList == null) {
             return null;
         }
@@ -153,7 +290,7 @@ public class HttpUrl {
      */
     @NotNull
     public List<String> getAllQueryParameters(String parameterName) {
-        List<String> values = queryParameters.get(parameterName);
+        List<String> values = getQueryParameters().get(parameterName);
         return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
     }
 
@@ -180,12 +317,12 @@ public class HttpUrl {
         return protocol == httpUrl.protocol &&
                 host.equals(httpUrl.host) &&
                 pathname.equals(httpUrl.pathname) &&
-                Objects.equals(queryParameters, httpUrl.queryParameters);
+                Objects.equals(getQueryParameters(), httpUrl.getQueryParameters());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(protocol, host, pathname, queryParameters);
+        return Objects.hash(protocol, host, pathname, getQueryParameters());
     }
 
     @Override
@@ -194,7 +331,7 @@ public class HttpUrl {
                 "protocol=" + protocol +
                 ", host='" + host + '\'' +
                 ", pathname='" + pathname + '\'' +
-                ", queryParameters=" + queryParameters +
+                ", queryParameters=" + getQueryParameters() +
                 '}';
     }
 
@@ -206,6 +343,9 @@ public class HttpUrl {
         private String host;
         private String pathname;
         private Map<String, List<String>> queryParameters;
+        private LazyJsonValue lazyQueryParameters;
+        private String rawPath;
+        private boolean preserveRawPath;
 
         /**
          * Set the protocol part of the URL to build.
@@ -245,6 +385,7 @@ public class HttpUrl {
                 throw new IllegalArgumentException("The 'pathname' property should not contain '?' - use 'path' instead");
             }
             this.pathname = pathname;
+            this.rawPath = null;
             return this;
         }
 
@@ -265,28 +406,65 @@ public class HttpUrl {
          *   builder.pathname("/a/path").addQueryParameter("q", "v");
          * </pre>
          *
+         * <p>
+         * The path is parsed in a single pass: the path name is taken as it is, any fragment is dropped, and query
+         * parameter names and values are decoded as by {@link java.net.URLDecoder}. A parameter without a value, as in
+         * "?q" or "?q=", has a null value, and its name is only decoded when followed by '='.
+         *
          * @param path the path name and query part of an url
          * @return this builder
+         * @throws IllegalArgumentException if the query has a malformed escape (%) pattern
          * @see #getPath()
          */
         public Builder path(String path) {
             this.queryParameters = new HashMap<>();
-            try {
-                URL asUrl = new URL("file:" + path);
-                pathname(asUrl.getPath());
-                if (asUrl.getQuery() != null) {
-                    final String[] pairs = asUrl.getQuery().split("&");
-                    for (String pair : pairs) {
-                        final int idx = pair.indexOf("=");
-                        final String key = idx > 0 ? URLDecoder.decode(pair.substring(0, idx), "utf-8") : pair;
-                        final String value = idx > 0 && pair.length() > idx + 1 ? URLDecoder.decode(pair.substring(idx + 1), "utf-8") : null;
-                        addQueryParameter(key, value);
+            this.lazyQueryParameters = null;
+            int end = path.indexOf('#');
+            if (end < 0) {
+                end = path.length();
+            }
+            int query = path.indexOf('?');
+            if (query < 0 || query > end) {
+                query = end;
+            }
+            pathname(path.substring(0, query));
+            if (query < end) {
+                parseQuery(path, query + 1, end);
+            }
+            this.rawPath = end == path.length() ? path : path.substring(0, end);
+            return this;
+        }
+
+        /**
+         * Add the query parameters of the '&amp;'-separated pairs in the given part of the path. As when splitting the
+         * query on '&amp;', empty pairs add an empty name without a value except at the end, and an empty query adds
+         * one.
+         */
+        private void parseQuery(String path, int from, int to) {
+            if (from == to) {
+                addQueryParameter("", null);
+                return;
+            }
+            int emptyPairs = 0;
+            for (int start = from; start <= to; ) {
+                int end = path.indexOf('&', start);
+                if (end < 0 || end > to) {
+                    end = to;
+                }
+                if (end == start) {
+                    emptyPairs++;
+                } else {
+                    for (; emptyPairs > 0; emptyPairs--) {
+                        addQueryParameter("", null);
+                    }
+                    int equals = path.indexOf('=', start);
+                    if (equals > start && equals < end) {
+                        addQueryParameter(decode(path, start, equals), equals + 1 < end ? decode(path, equals + 1, end) : null);
+                    } else {
+                        addQueryParameter(path.substring(start, end), null);
                     }
                 }
-                return this;
-            } catch (MalformedURLException | UnsupportedEncodingException e) {
-                // FIXME: Avoid hack.
-                throw new RuntimeException(e);
+                start = end + 1;
             }
         }
 
@@ -300,6 +478,8 @@ public class HttpUrl {
          */
         public Builder queryParameters(Map<String, String> queryParameters) {
             this.queryParameters = new HashMap<>();
+            this.lazyQueryParameters = null;
+            this.rawPath = null;
             for (Map.Entry<String, String> entry : queryParameters.entrySet()) {
                 this.queryParameters.put(entry.getKey(), Collections.singletonList(entry.getValue()));
             }
@@ -316,6 +496,15 @@ public class HttpUrl {
          */
         public Builder queryParametersMultivalued(Map<String, List<String>> queryParameters) {
             this.queryParameters = new HashMap<>(queryParameters);
+            this.lazyQueryParameters = null;
+            this.rawPath = null;
+            return this;
+        }
+
+        Builder lazyQueryParameters(LazyJsonValue lazyQueryParameters) {
+            this.queryParameters = null;
+            this.lazyQueryParameters = lazyQueryParameters;
+            this.rawPath = null;
             return this;
         }
 
@@ -335,11 +524,31 @@ public class HttpUrl {
          * @return this builder
          */
         public Builder addQueryParameter(String name, String value) {
-            if (queryParameters == null) {
+            if (lazyQueryParameters != null) {
+                queryParameters = lazyQueryParameters.decodeQuery();
+                lazyQueryParameters = null;
+            } else if (queryParameters == null) {
                 queryParameters = new HashMap<>();
             }
             List<String> currentList = queryParameters.computeIfAbsent(name, k -> new ArrayList<>());
             currentList.add(value);
+            rawPath = null;
+            return this;
+        }
+
+        /**
+         * Set whether to keep a path set with {@link #path(String)} exactly as given, without any fragment.
+         * <p>
+         * {@link HttpUrl#getPath()} of the built URL then returns the path with the query encoded as it was, instead of
+         * encoding the parsed query parameters anew. Setting the path name or query parameters in any other way after
+         * {@link #path(String)} discards the given path.
+         *
+         * @param preserveRawPath true to keep the given path, false to always encode the query parameters
+         * @return this builder
+         * @see HttpUrl#getPath()
+         */
+        public Builder preserveRawPath(boolean preserveRawPath) {
+            this.preserveRawPath = preserveRawPath;
             return this;
         }
 
@@ -370,7 +579,12 @@ public class HttpUrl {
          * @return the built instance
          */
         public HttpUrl build() {
-            return new HttpUrl(protocol, host, pathname, queryParameters == null ? Collections.emptyMap() : queryParameters);
+            String path = preserveRawPath ? rawPath : null;
+            if (lazyQueryParameters != null) {
+                return new HttpUrl(protocol, host, pathname, null, lazyQueryParameters, path);
+            }
+            Map<String, List<String>> queryParameters = this.queryParameters == null ? Collections.emptyMap() : this.queryParameters;
+            return new HttpUrl(protocol, host, pathname, Collections.unmodifiableMap(queryParameters), null, path);
         }
 
     }
@@ -0,0 +1,245 @@
+package com.meeshkan.http.types;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Parser and formatter of the ISO-8601 timestamps used in http-types recordings.
+ * <p>
+ * Timestamps are read as a local date-time with optional seconds, fractional seconds and offset, the local date-time
+ * being in UTC if there is no offset. Timestamps are written in UTC in the format of {@link DateTimeFormatter#ISO_INSTANT}.
+ * The common cases are handled directly on the characters without going through {@link TemporalAccessor temporal}
+ * objects, anything else falls back to {@link DateTimeFormatter} with exactly the same results and errors as before.
+ */
+final class Iso8601 {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffsetId()
+            .toFormatter();
+
+    /**
+     * Epoch seconds of 0000-01-01T00:00:00Z and 9999-12-31T23:59:59Z, the range of the four digit years handled directly.
+     */
+    private static final long MIN_SECOND = -62167219200L;
+    private static final long MAX_SECOND = 253402300799L;
+
+    private static final int SECONDS_PER_DAY = 86400;
+    /**
+     * Days from 0000-03-01 to 1970-01-01, see {@link #epochDay(int, int, int)}.
+     */
+    private static final long DAYS_0000_03_01_TO_1970 = 719468;
+
+    private Iso8601() {
+        // Not for instantiation, only a container of static methods.
+    }
+
+    /**
+     * Parse a timestamp such as {@code 2019-11-13T20:20:39+02:00} or {@code 2020-01-31T13:34:15.123}.
+     *
+     * @throws java.time.format.DateTimeParseException if the timestamp is not valid
+     */
+    static Instant parse(String text) {
+        Instant instant = parseCommon(text);
+        return instant != null ? instant : parseAny(text);
+    }
+
+    /**
+     * Parse a timestamp with a four digit year, returning null if it is in any other format or invalid.
+     */
+    private static Instant parseCommon(String text) {
+        int length = text.length();
+        if (length < 16 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' || text.charAt(13) != ':') {
+            return null;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return null;
+        }
+
+        int i = 16;
+        int second = 0;
+        int nano = 0;
+        if (i < length && text.charAt(i) == ':') {
+            second = i + 3 <= length ? digits(text, i + 1, 2) : -1;
+            if (second < 0 || second > 59) {
+                return null;
+            }
+            i += 3;
+            if (i < length && text.charAt(i) == '.') {
+                int fractionStart = ++i;
+                while (i < length && i - fractionStart < 9 && isDigit(text.charAt(i))) {
+                    nano = nano * 10 + (text.charAt(i++) - '0');
+                }
+                if (i == fractionStart || (i < length && isDigit(text.charAt(i)))) {
+                    return null;
+                }
+                for (int digits = i - fractionStart; digits < 9; digits++) {
+                    nano *= 10;
+                }
+            }
+        }
+
+        int offsetSeconds = 0;
+        if (i < length) {
+            char sign = text.charAt(i);
+            if (sign == 'Z' && i + 1 == length) {
+                offsetSeconds = 0;
+            } else if ((sign == '+' || sign == '-') && i + 6 == length && text.charAt(i + 3) == ':') {
+                int offsetHours = digits(text, i + 1, 2);
+                int offsetMinutes = digits(text, i + 4, 2);
+                if (offsetHours < 0 || offsetHours > 17 || offsetMinutes < 0 || offsetMinutes > 59) {
+                    return null;
+                }
+                offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+                if (sign == '-') {
+                    offsetSeconds = -offsetSeconds;
+                }
+            } else {
+                return null;
+            }
+        }
+
+        long epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return Instant.ofEpochSecond(epochSecond, nano);
+    }
+
+    // See https://stackoverflow.com/a/46410889/300710
+    private static Instant parseAny(String text) {
+        TemporalAccessor parsed = DATE_TIME_FORMATTER.parse(text);
+        ZoneOffset offset = parsed.isSupported(ChronoField.OFFSET_SECONDS) ? ZoneOffset.from(parsed) : ZoneOffset.UTC;
+        return LocalDateTime.from(parsed).toInstant(offset);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Value of the given number of decimal digits, or -1 if not all of them are digits.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days since the epoch of a date, counting in years starting on March 1 so that leap days come last.
+    // See http://howardhinnant.github.io/date_algorithms.html
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - DAYS_0000_03_01_TO_1970;
+    }
+
+    /**
+     * Formatter of timestamps in the format of {@link DateTimeFormatter#ISO_INSTANT}, such as {@code 2019-11-13T18:20:39.500Z}.
+     * <p>
+     * The formatted date and time up to the seconds is kept between calls, so consecutive timestamps in the same second,
+     * as is common for the request and response of an exchange, only format the fraction. Instances are not thread-safe.
+     */
+    static final class Formatter {
+        private final char[] chars = new char[30];
+        private long cachedEpochSecond = Long.MIN_VALUE;
+
+        String format(Instant instant) {
+            long epochSecond = instant.getEpochSecond();
+            if (epochSecond < MIN_SECOND || epochSecond > MAX_SECOND) {
+                return DateTimeFormatter.ISO_INSTANT.format(instant);
+            }
+            if (epochSecond != cachedEpochSecond) {
+                formatSeconds(epochSecond);
+                cachedEpochSecond = epochSecond;
+            }
+
+            int length = 19;
+            int nano = instant.getNano();
+            if (nano > 0) {
+                chars[length++] = '.';
+                if (nano % 1_000_000 == 0) {
+                    length = formatDigits(nano / 1_000_000, length, 3);
+                } else if (nano % 1000 == 0) {
+                    length = formatDigits(nano / 1000, length, 6);
+                } else {
+                    length = formatDigits(nano, length, 9);
+                }
+            }
+            chars[length++] = 'Z';
+            return new String(chars, 0, length);
+        }
+
+        // See http://howardhinnant.github.io/date_algorithms.html
+        private void formatSeconds(long epochSecond) {
+            long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+            int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+
+            long dayOfEpochEra = epochDay + DAYS_0000_03_01_TO_1970;
+            long era = (dayOfEpochEra >= 0 ? dayOfEpochEra : dayOfEpochEra - 146096) / 146097;
+            int dayOfEra = (int) (dayOfEpochEra - era * 146097);
+            int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            int shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+            int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+            int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+            formatDigits(year, 0, 4);
+            chars[4] = '-';
+            formatDigits(month, 5, 2);
+            chars[7] = '-';
+            formatDigits(day, 8, 2);
+            chars[10] = 'T';
+            formatDigits(secondOfDay / 3600, 11, 2);
+            chars[13] = ':';
+            formatDigits(secondOfDay / 60 % 60, 14, 2);
+            chars[16] = ':';
+            formatDigits(secondOfDay % 60, 17, 2);
+        }
+
+        private int formatDigits(int value, int start, int count) {
+            for (int i = start + count - 1; i >= start; i--) {
+                chars[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            return start + count;
+        }
+    }
+
+}
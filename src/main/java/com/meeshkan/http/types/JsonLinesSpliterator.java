@@ -0,0 +1,325 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable source of HTTP exchanges in a byte range of a http-types JSON Lines file.
+ * <p>
+ * Splitting divides the range in two halves, with the split point moved forward to the start of the next line so
+ * that no record is cut in two. Each half is then read independently by memory mapping it, in windows of whole lines,
+ * and tokenizing the mapped UTF-8 bytes in place - no bytes are copied to the heap except for the strings decoded
+ * into the exchanges.
+ * <p>
+ * Size estimates are in bytes, not records, since the number of records in a range is unknown until it has been
+ * read. That makes the estimates useful for balancing splits, but the spliterator does not report {@link #SIZED}.
+ * <p>
+ * Malformed lines reported to an {@link HttpExchangeReader.ErrorHandler} get their absolute line number by counting
+ * the lines before the range when the first one is reported, so ranges without errors are never counted.
+ */
+final class JsonLinesSpliterator implements Spliterator<HttpExchange> {
+    static final long DEFAULT_MINIMUM_SPLIT_SIZE = 1 << 20;
+    static final long DEFAULT_MAXIMUM_WINDOW_SIZE = 1 << 30;
+
+    private final HttpExchangeDecoder decoder;
+    /**
+     * The decoder used for reading, reporting malformed lines with absolute line numbers and offsets.
+     */
+    private final HttpExchangeDecoder lineDecoder;
+    private final FileChannel channel;
+    private final long minimumSplitSize;
+    private final long maximumWindowSize;
+    /**
+     * Start of the range, always at the start of a line.
+     */
+    private long start;
+    /**
+     * End of the range, exclusive, always at the end of the file or after a line feed.
+     */
+    private final long end;
+    /**
+     * Tokenizer over the currently mapped window, which starts at {@link #start} and ends at {@link #windowEnd}.
+     */
+    private JsonTokenizer json;
+    private long windowEnd;
+    /**
+     * Number of lines before {@link #start}, or -1 if not counted yet.
+     */
+    private long linesBeforeStart;
+    /**
+     * Offsets of the start of the line of the last exchange read, and of the input after it.
+     */
+    private long lastOffset;
+    private long lastNextOffset;
+
+    JsonLinesSpliterator(HttpExchangeDecoder decoder, FileChannel channel, long start, long end, long minimumSplitSize, long maximumWindowSize) {
+        this.decoder = decoder;
+        HttpExchangeReader.ErrorHandler errorHandler = decoder.getErrorHandler();
+        this.lineDecoder = errorHandler == null ? decoder : decoder.withErrorHandler((lineNumber, offset, error) ->
+                errorHandler.malformedLine(linesBeforeStart() + lineNumber, this.start + offset, error));
+        this.channel = channel;
+        this.start = start;
+        this.linesBeforeStart = start == 0 ? 0 : -1;
+        this.end = end;
+        this.minimumSplitSize = minimumSplitSize;
+        this.maximumWindowSize = maximumWindowSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super HttpExchange> action) {
+        try {
+            while (true) {
+                while (json == null || !json.hasMoreInput()) {
+                    if (json != null) {
+                        if (linesBeforeStart >= 0) {
+                            linesBeforeStart += json.lineNumber() - 1;
+                        }
+                        start = windowEnd;
+                    }
+                    if (start >= end) {
+                        return false;
+                    }
+                    mapNextWindow();
+                }
+                long offset = start + json.position();
+                HttpExchange exchange = lineDecoder.readJsonLine(json);
+                // Exchanges not matching the filter, or malformed in lenient mode, are read as null.
+                if (exchange != null) {
+                    lastOffset = offset;
+                    lastNextOffset = start + json.position();
+                    action.accept(exchange);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Map the next window of the range, ending after the last complete line that fits in the window.
+     */
+    private void mapNextWindow() throws IOException {
+        long size = Math.min(end - start, maximumWindowSize);
+        while (true) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            int windowLimit = (int) size;
+            if (start + size < end) {
+                windowLimit = lastLineEnd(window, (int) size);
+            }
+            if (windowLimit > 0) {
+                window.limit(windowLimit);
+                json = new JsonTokenizer(window);
+                windowEnd = start + windowLimit;
+                return;
+            } else if (size >= Integer.MAX_VALUE) {
+                throw new IOException("Line at offset " + start + " is too large to map");
+            }
+            // A single line larger than the window.
+            size = Math.min(end - start, Math.min(Integer.MAX_VALUE, size * 2));
+        }
+    }
+
+    private static int lastLineEnd(ByteBuffer window, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public Spliterator<HttpExchange> trySplit() {
+        if (json != null || end - start < 2 * minimumSplitSize) {
+            return null;
+        }
+        try {
+            long splitPoint = nextLineStart(start + (end - start) / 2);
+            if (splitPoint >= end) {
+                return null;
+            }
+            JsonLinesSpliterator prefix = new JsonLinesSpliterator(decoder, channel, start, splitPoint, minimumSplitSize, maximumWindowSize);
+            start = splitPoint;
+            linesBeforeStart = -1;
+            return prefix;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long nextLineStart(long from) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < end) {
+            chunk.clear();
+            int read = channel.read(chunk, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (chunk.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    private long linesBeforeStart() {
+        if (linesBeforeStart < 0) {
+            try {
+                long lineFeeds = 0;
+                ByteBuffer chunk = ByteBuffer.allocate(8192);
+                long position = 0;
+                while (position < start) {
+                    chunk.clear();
+                    chunk.limit((int) Math.min(chunk.capacity(), start - position));
+                    int read = channel.read(chunk, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (chunk.get(i) == '\n') {
+                            lineFeeds++;
+                        }
+                    }
+                    position += read;
+                }
+                linesBeforeStart = lineFeeds;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return linesBeforeStart;
+    }
+
+    @Override
+    public long estimateSize() {
+        return json == null ? end - start : Math.max(0, end - start - json.position());
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Spliterator of the same exchanges together with their offsets.
+     */
+    static final class Records implements Spliterator<HttpExchangeRecord> {
+        private final JsonLinesSpliterator exchanges;
+
+        Records(JsonLinesSpliterator exchanges) {
+            this.exchanges = exchanges;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super HttpExchangeRecord> action) {
+            return exchanges.tryAdvance(exchange ->
+                    action.accept(new HttpExchangeRecord(exchange, exchanges.lastOffset, exchanges.lastNextOffset)));
+        }
+
+        @Override
+        public Spliterator<HttpExchangeRecord> trySplit() {
+            JsonLinesSpliterator prefix = (JsonLinesSpliterator) exchanges.trySplit();
+            return prefix == null ? null : new Records(prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            return exchanges.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return exchanges.characteristics();
+        }
+    }
+
+    /**
+     * Spliterator of the exchanges in several byte ranges of a file, read in order by a spliterator per range.
+     * <p>
+     * Splitting divides the remaining ranges in two, or splits the last range once only one is left.
+     */
+    static final class Ranges implements Spliterator<HttpExchange> {
+        private final HttpExchangeDecoder decoder;
+        private final FileChannel channel;
+        /**
+         * Pairs of start and end offsets, read from {@link #next} up to {@link #last}, exclusive.
+         */
+        private final List<long[]> ranges;
+        private int next;
+        private final int last;
+        private JsonLinesSpliterator current;
+
+        Ranges(HttpExchangeDecoder decoder, FileChannel channel, List<long[]> ranges) {
+            this(decoder, channel, ranges, 0, ranges.size());
+        }
+
+        private Ranges(HttpExchangeDecoder decoder, FileChannel channel, List<long[]> ranges, int next, int last) {
+            this.decoder = decoder;
+            this.channel = channel;
+            this.ranges = ranges;
+            this.next = next;
+            this.last = last;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super HttpExchange> action) {
+            while (true) {
+                if (current == null) {
+                    if (next >= last) {
+                        return false;
+                    }
+                    current = nextRange();
+                }
+                if (current.tryAdvance(action)) {
+                    return true;
+                }
+                current = null;
+            }
+        }
+
+        private JsonLinesSpliterator nextRange() {
+            long[] range = ranges.get(next++);
+            return new JsonLinesSpliterator(decoder, channel, range[0], range[1], DEFAULT_MINIMUM_SPLIT_SIZE, DEFAULT_MAXIMUM_WINDOW_SIZE);
+        }
+
+        @Override
+        public Spliterator<HttpExchange> trySplit() {
+            if (current == null && last - next >= 2) {
+                int middle = next + (last - next) / 2;
+                Ranges prefix = new Ranges(decoder, channel, ranges, next, middle);
+                next = middle;
+                return prefix;
+            }
+            if (current == null && next < last) {
+                current = nextRange();
+            }
+            // The ranges after the current one cannot be split off, since the prefix must come first.
+            return current != null && next >= last ? current.trySplit() : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = current == null ? 0 : current.estimateSize();
+            for (int i = next; i < last; i++) {
+                size += ranges.get(i)[1] - ranges.get(i)[0];
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+}
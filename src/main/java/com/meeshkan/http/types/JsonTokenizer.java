@@ -0,0 +1,897 @@
+package com.meeshkan.http.types;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull tokenizer of UTF-8 encoded JSON, reading tokens one at a time without building any intermediate tree.
+ * <p>
+ * Input is either a fixed {@link ByteBuffer} or an {@link InputStream} which is read into an internal, growable buffer.
+ * Strings are only decoded when asked for with {@link #nextName()} or {@link #nextString()} - skipped values are only scanned.
+ * <p>
+ * Parsing is lenient in the same way as the org.json parser used previously: trailing commas in objects and arrays
+ * are accepted, and content after the end of a document is ignored.
+ */
+final class JsonTokenizer {
+
+    /**
+     * Kind of token returned by {@link #peek()}.
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private ByteBuffer buffer;
+    /**
+     * Duplicate of {@link #buffer} used to decode segments without touching the position of the buffer itself.
+     */
+    private ByteBuffer view;
+    private int pos;
+    private int limit;
+    /**
+     * Absolute input offset of index 0 in {@link #buffer}.
+     */
+    private long bufferOffset;
+    /**
+     * Line feeds passed between documents, see {@link #lineNumber()}.
+     */
+    private long lineFeeds;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+    private Token peeked;
+
+    /**
+     * Decoder and output buffer for strings with escapes or outside of heap buffers, created when first needed.
+     */
+    private CharsetDecoder decoder;
+    private CharBuffer chars;
+
+    /**
+     * Create a tokenizer reading from the bytes remaining in the given buffer, which is not modified.
+     */
+    JsonTokenizer(ByteBuffer buffer) {
+        this.in = null;
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.pos = buffer.position();
+        this.limit = buffer.limit();
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Create a tokenizer reading from the given stream, which is buffered internally.
+     */
+    JsonTokenizer(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a tokenizer reading from the given stream, in reads of up to the given number of bytes.
+     */
+    JsonTokenizer(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = ByteBuffer.wrap(new byte[bufferSize]);
+        this.view = buffer.duplicate();
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Absolute byte offset in the input of the next unread byte.
+     */
+    long position() {
+        return bufferOffset + pos;
+    }
+
+    /**
+     * Line number, starting at 1, of the next unread byte.
+     * <p>
+     * Only line feeds passed by {@link #hasMoreInput()}, {@link #nextLine()} and {@link #skipLine()} are counted, which
+     * is all of them for JSON Lines input.
+     */
+    long lineNumber() {
+        return lineFeeds + 1;
+    }
+
+    /**
+     * Prepare for reading another top-level document, such as the next line of a JSON Lines input.
+     */
+    void nextDocument() {
+        stackSize = 0;
+        peeked = null;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Skip whitespace and report whether there is any more input.
+     */
+    boolean hasMoreInput() throws IOException {
+        while (true) {
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == '\n') {
+                    lineFeeds++;
+                    pos++;
+                } else if (b == ' ' || b == '\r' || b == '\t') {
+                    pos++;
+                } else {
+                    return true;
+                }
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Copy the input up to the next line feed, or to the end of input if there is none, and position after the line feed.
+     */
+    byte[] nextLine() throws IOException {
+        return copyUntil(true);
+    }
+
+    /**
+     * Copy all remaining input.
+     */
+    byte[] remaining() throws IOException {
+        return copyUntil(false);
+    }
+
+    private byte[] copyUntil(boolean stopAtLineFeed) throws IOException {
+        peeked = null;
+        int p = pos;
+        while (true) {
+            while (p < limit) {
+                if (stopAtLineFeed && buffer.get(p) == '\n') {
+                    byte[] result = copy(pos, p);
+                    pos = p + 1;
+                    lineFeeds++;
+                    return result;
+                }
+                p++;
+            }
+            int offset = p - pos;
+            if (!fill()) {
+                byte[] result = copy(pos, p);
+                pos = p;
+                return result;
+            }
+            p = pos + offset;
+        }
+    }
+
+    private byte[] copy(int start, int end) {
+        byte[] result = new byte[end - start];
+        view.limit(end);
+        view.position(start);
+        view.get(result);
+        return result;
+    }
+
+    /**
+     * Skip input up to and including the next line feed, or to the end of input if there is none.
+     */
+    void skipLine() throws IOException {
+        peeked = null;
+        while (true) {
+            while (pos < limit) {
+                if (buffer.get(pos++) == '\n') {
+                    lineFeeds++;
+                    return;
+                }
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c == '}') {
+                        return peeked = Token.END_OBJECT;
+                    } else if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c == '}') {
+                    // Empty object, or a trailing comma.
+                    return peeked = Token.END_OBJECT;
+                } else if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = peekValue(nextNonWhitespace());
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c == ']') {
+                        return peeked = Token.END_ARRAY;
+                    } else if (c != ',') {
+                        throw syntaxError("Expected ',' or ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c == ']') {
+                    // Empty array, or a trailing comma.
+                    return peeked = Token.END_ARRAY;
+                }
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                return peeked = peekValue(c);
+            case EMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = peekValue(c);
+            default:
+                // Anything after the top-level value is ignored.
+                return peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                pos--;
+                return Token.NUMBER;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Absolute byte offset in the input where the value returned by {@link #peek()} starts.
+     */
+    long valueStart() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+            case STRING:
+                // The first byte has already been consumed.
+                return position() - 1;
+            default:
+                return position();
+        }
+    }
+
+    /**
+     * Whether the current object or array has more elements.
+     */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+        peeked = null;
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+        peeked = null;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+        peeked = null;
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+        peeked = null;
+    }
+
+    String nextName() throws IOException {
+        return nextName((StringDictionary) null);
+    }
+
+    /**
+     * Read a name, taking the canonical instance from the given dictionary if any.
+     */
+    String nextName(StringDictionary dictionary) throws IOException {
+        expect(Token.NAME);
+        String name = readString(dictionary);
+        stack[stackSize - 1] = DANGLING_NAME;
+        peeked = null;
+        return name;
+    }
+
+    /**
+     * Read a name, returning the matching instance from the given names without decoding if there is one.
+     *
+     * @param knownNames ASCII names which are likely to occur
+     */
+    String nextName(KnownNames knownNames) throws IOException {
+        return nextName(knownNames, null);
+    }
+
+    /**
+     * Read a name, returning the matching instance from the given names without decoding if there is one, or else
+     * taking the canonical instance from the given dictionary if any.
+     */
+    String nextName(KnownNames knownNames, StringDictionary dictionary) throws IOException {
+        expect(Token.NAME);
+        int end = scanString();
+        String name = knownNames.find(this, pos, end);
+        if (name != null) {
+            pos = end + 1;
+        } else {
+            name = readString(dictionary);
+        }
+        stack[stackSize - 1] = DANGLING_NAME;
+        peeked = null;
+        return name;
+    }
+
+    /**
+     * The hash code of the raw bytes, which for ASCII is the same as that of the string.
+     */
+    private int hash(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash;
+    }
+
+    private boolean matches(String ascii, int start, int end) {
+        int length = ascii.length();
+        if (end - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String nextString() throws IOException {
+        return nextString(null);
+    }
+
+    /**
+     * Read a string, taking the canonical instance from the given dictionary if any.
+     */
+    String nextString(StringDictionary dictionary) throws IOException {
+        expect(Token.STRING);
+        String value = readString(dictionary);
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * Read a string as its UTF-8 encoded bytes, without decoding it to chars.
+     * <p>
+     * Bytes outside of escapes are copied as is, escapes are encoded as UTF-8, and escaped unpaired surrogates
+     * are encoded as "?", as when encoding a string with unpaired surrogates.
+     */
+    byte[] nextStringBytes() throws IOException {
+        expect(Token.STRING);
+        int end = scanString();
+        int start = pos;
+        pos = end + 1;
+        peeked = null;
+        // Escapes are never shorter than the UTF-8 encoding of what they stand for.
+        byte[] result = new byte[end - start];
+        int size = 0;
+        int i = start;
+        while (i < end) {
+            byte b = buffer.get(i++);
+            if (b != '\\') {
+                result[size++] = b;
+                continue;
+            }
+            byte escaped = buffer.get(i++);
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    result[size++] = escaped;
+                    break;
+                case 'b':
+                    result[size++] = '\b';
+                    break;
+                case 'f':
+                    result[size++] = '\f';
+                    break;
+                case 'n':
+                    result[size++] = '\n';
+                    break;
+                case 'r':
+                    result[size++] = '\r';
+                    break;
+                case 't':
+                    result[size++] = '\t';
+                    break;
+                case 'u':
+                    int c = unicodeEscape(i, end);
+                    i += 4;
+                    if (Character.isHighSurrogate((char) c) && i + 6 <= end && buffer.get(i) == '\\' && buffer.get(i + 1) == 'u') {
+                        int low = unicodeEscape(i + 2, end);
+                        if (Character.isLowSurrogate((char) low)) {
+                            c = Character.toCodePoint((char) c, (char) low);
+                            i += 6;
+                        }
+                    }
+                    size = putUtf8(result, size, c);
+                    break;
+                default:
+                    throw syntaxError("Illegal escape");
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private int unicodeEscape(int i, int end) {
+        if (i + 4 > end) {
+            throw syntaxError("Illegal escape");
+        }
+        return (hexValue(buffer.get(i)) << 12) | (hexValue(buffer.get(i + 1)) << 8)
+                | (hexValue(buffer.get(i + 2)) << 4) | hexValue(buffer.get(i + 3));
+    }
+
+    private static int putUtf8(byte[] bytes, int size, int codePoint) {
+        if (codePoint < 0x80) {
+            bytes[size++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            bytes[size++] = (byte) (0xc0 | (codePoint >> 6));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint >= 0x10000) {
+            bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate((char) codePoint)) {
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xe0 | (codePoint >> 12));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+        return size;
+    }
+
+    /**
+     * Read a number, or a string containing a number, as an int.
+     */
+    int nextInt() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            String value = readString(null);
+            peeked = null;
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected an int but was '" + value + "'");
+            }
+        }
+        expect(Token.NUMBER);
+        int end = scanLiteral();
+        int result = 0;
+        boolean negative = buffer.get(pos) == '-';
+        int i = negative ? pos + 1 : pos;
+        boolean simple = end - i > 0 && end - i < 10;
+        for (; simple && i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                simple = false;
+            } else {
+                result = result * 10 + digit;
+            }
+        }
+        if (!simple) {
+            String literal = literal(end);
+            try {
+                result = new BigDecimal(literal).intValue();
+            } catch (NumberFormatException e) {
+                throw syntaxError("Invalid number '" + literal + "'");
+            }
+        } else if (negative) {
+            result = -result;
+        }
+        pos = end;
+        peeked = null;
+        return result;
+    }
+
+    /**
+     * Skip the next value, including any nested values, without decoding it.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    pos = scanString() + 1;
+                    stack[stackSize - 1] = DANGLING_NAME;
+                    peeked = null;
+                    break;
+                case STRING:
+                    pos = scanString() + 1;
+                    peeked = null;
+                    break;
+                case NUMBER:
+                case BOOLEAN:
+                case NULL:
+                    pos = scanLiteral();
+                    peeked = null;
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of input");
+            }
+        } while (depth > 0);
+    }
+
+    JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte offset " + position());
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        if (hasMoreInput()) {
+            return buffer.get(pos++) & 0xFF;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the closing quote of the string starting at {@link #pos}, filling the buffer as needed.
+     *
+     * @return the buffer index of the closing quote
+     */
+    private int scanString() throws IOException {
+        int p = pos;
+        while (true) {
+            while (p < limit) {
+                byte b = buffer.get(p);
+                if (b == '"') {
+                    return p;
+                } else if (b == '\\') {
+                    p += 2;
+                } else if (b == '\n' || b == '\r' || b == 0) {
+                    throw syntaxError("Unterminated string");
+                } else {
+                    p++;
+                }
+            }
+            int offset = p - pos;
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            p = pos + offset;
+        }
+    }
+
+    /**
+     * Find the end of the number or literal starting at {@link #pos}, filling the buffer as needed.
+     *
+     * @return the buffer index after the last byte of the literal
+     */
+    private int scanLiteral() throws IOException {
+        int p = pos;
+        while (true) {
+            while (p < limit) {
+                switch (buffer.get(p)) {
+                    case ',':
+                    case '}':
+                    case ']':
+                    case ':':
+                    case ' ':
+                    case '\n':
+                    case '\r':
+                    case '\t':
+                        return p;
+                    default:
+                        p++;
+                }
+            }
+            int offset = p - pos;
+            if (!fill()) {
+                return pos + offset;
+            }
+            p = pos + offset;
+        }
+    }
+
+    private String literal(int end) {
+        StringBuilder result = new StringBuilder(end - pos);
+        for (int i = pos; i < end; i++) {
+            result.append((char) buffer.get(i));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Read the string starting at {@link #pos} and position after its closing quote.
+     */
+    private String readString(StringDictionary dictionary) throws IOException {
+        int end = scanString();
+        int start = pos;
+        pos = end + 1;
+        if ((dictionary != null || buffer.hasArray()) && indexOfBackslash(start, end) < 0) {
+            if (dictionary != null) {
+                return dictionary.intern(buffer, start, end);
+            }
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            chars = CharBuffer.allocate(Math.max(256, end - start));
+        }
+        chars.clear();
+        int segmentStart = start;
+        int i = start;
+        while (i < end) {
+            if (buffer.get(i) != '\\') {
+                i++;
+                continue;
+            }
+            decodeSegment(segmentStart, i);
+            i++;
+            byte escaped = buffer.get(i++);
+            char c;
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    c = (char) escaped;
+                    break;
+                case 'b':
+                    c = '\b';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case 'u':
+                    c = (char) unicodeEscape(i, end);
+                    i += 4;
+                    break;
+                default:
+                    throw syntaxError("Illegal escape");
+            }
+            ensureCharCapacity(1);
+            chars.put(c);
+            segmentStart = i;
+        }
+        decodeSegment(segmentStart, end);
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    private int indexOfBackslash(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\\') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void decodeSegment(int start, int end) {
+        if (start == end) {
+            return;
+        }
+        view.limit(end);
+        view.position(start);
+        decoder.reset();
+        while (true) {
+            CoderResult result = decoder.decode(view, chars, true);
+            if (result.isOverflow()) {
+                ensureCharCapacity(chars.capacity());
+            } else {
+                break;
+            }
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            ensureCharCapacity(chars.capacity());
+        }
+    }
+
+    private void ensureCharCapacity(int extra) {
+        if (chars.remaining() < extra) {
+            CharBuffer newChars = CharBuffer.allocate(Math.max(chars.capacity() * 2, chars.position() + extra));
+            chars.flip();
+            newChars.put(chars);
+            chars = newChars;
+        }
+    }
+
+    private int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw syntaxError("Illegal escape");
+    }
+
+    /**
+     * Read more input, keeping all bytes from {@link #pos} onwards.
+     *
+     * @return false if at the end of input
+     */
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        byte[] array = buffer.array();
+        if (pos > 0) {
+            System.arraycopy(array, pos, array, 0, limit - pos);
+            bufferOffset += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == array.length) {
+            byte[] newArray = new byte[array.length * 2];
+            System.arraycopy(array, 0, newArray, 0, limit);
+            array = newArray;
+            buffer = ByteBuffer.wrap(array);
+            view = buffer.duplicate();
+        }
+        int read;
+        do {
+            read = in.read(array, limit, array.length - limit);
+        } while (read == 0);
+        if (read == -1) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Set of ASCII names looked up by the hash of the raw bytes of a name, so that finding a name takes one pass over
+     * its bytes however many names there are.
+     */
+    static final class KnownNames {
+        private final String[] table;
+        private final int mask;
+
+        KnownNames(String... names) {
+            // At most half full, so that probing for a name which is not in the set ends soon.
+            int size = Integer.highestOneBit(Math.max(names.length, 1) * 2) << 1;
+            table = new String[size];
+            mask = size - 1;
+            for (String name : names) {
+                int index = index(name.hashCode());
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = name;
+            }
+        }
+
+        private int index(int hash) {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        /**
+         * The name with the given raw bytes of the tokenizer, or null if none.
+         */
+        String find(JsonTokenizer json, int start, int end) {
+            int index = index(json.hash(start, end));
+            for (String name; (name = table[index]) != null; index = (index + 1) & mask) {
+                if (json.matches(name, start, end)) {
+                    return name;
+                }
+            }
+            return null;
+        }
+    }
+
+}
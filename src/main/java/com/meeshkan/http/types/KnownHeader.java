@@ -0,0 +1,258 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Well-known HTTP header names.
+ * <p>
+ * {@link HttpHeaders.Builder} and {@link HttpExchangeReader} recognize these names while building headers, keeping a
+ * single instance of each name and indexing the headers by them, so that {@link HttpHeaders#getFirst(KnownHeader)}
+ * and {@link HttpHeaders#getAll(KnownHeader)} find them directly instead of comparing names.
+ *
+ * @see HttpHeaders
+ */
+public enum KnownHeader {
+    /**
+     * Media types acceptable for the response.
+     */
+    ACCEPT("accept"),
+    /**
+     * Character sets acceptable for the response.
+     */
+    ACCEPT_CHARSET("accept-charset"),
+    /**
+     * Content encodings, such as compression, acceptable for the response.
+     */
+    ACCEPT_ENCODING("accept-encoding"),
+    /**
+     * Natural languages preferred for the response.
+     */
+    ACCEPT_LANGUAGE("accept-language"),
+    /**
+     * Whether the server supports range requests.
+     */
+    ACCEPT_RANGES("accept-ranges"),
+    /**
+     * Origins allowed to share the response.
+     */
+    ACCESS_CONTROL_ALLOW_ORIGIN("access-control-allow-origin"),
+    /**
+     * Time in seconds the response has been in a proxy cache.
+     */
+    AGE("age"),
+    /**
+     * Methods supported by the target resource.
+     */
+    ALLOW("allow"),
+    /**
+     * Credentials authenticating the client with the server.
+     */
+    AUTHORIZATION("authorization"),
+    /**
+     * Caching directives for requests and responses.
+     */
+    CACHE_CONTROL("cache-control"),
+    /**
+     * Control options for the current connection.
+     */
+    CONNECTION("connection"),
+    /**
+     * Whether the content is displayed inline or downloaded as an attachment.
+     */
+    CONTENT_DISPOSITION("content-disposition"),
+    /**
+     * Encodings, such as compression, applied to the content.
+     */
+    CONTENT_ENCODING("content-encoding"),
+    /**
+     * Natural languages of the intended audience of the content.
+     */
+    CONTENT_LANGUAGE("content-language"),
+    /**
+     * Size of the content in bytes.
+     */
+    CONTENT_LENGTH("content-length"),
+    /**
+     * Alternate location of the returned content.
+     */
+    CONTENT_LOCATION("content-location"),
+    /**
+     * Where in the full content a partial content belongs.
+     */
+    CONTENT_RANGE("content-range"),
+    /**
+     * Media type of the content.
+     */
+    CONTENT_TYPE("content-type"),
+    /**
+     * Cookies previously sent by the server.
+     */
+    COOKIE("cookie"),
+    /**
+     * Date and time at which the message originated.
+     */
+    DATE("date"),
+    /**
+     * Identifier of a specific version of a resource.
+     */
+    ETAG("etag"),
+    /**
+     * Expectations to be met by the server to handle the request.
+     */
+    EXPECT("expect"),
+    /**
+     * Date and time after which the response is considered stale.
+     */
+    EXPIRES("expires"),
+    /**
+     * Information added by proxies on the path of the request.
+     */
+    FORWARDED("forwarded"),
+    /**
+     * Host and port of the server the request is sent to.
+     */
+    HOST("host"),
+    /**
+     * Condition on the version of the resource matching.
+     */
+    IF_MATCH("if-match"),
+    /**
+     * Condition on the resource having been modified since a date.
+     */
+    IF_MODIFIED_SINCE("if-modified-since"),
+    /**
+     * Condition on the version of the resource not matching.
+     */
+    IF_NONE_MATCH("if-none-match"),
+    /**
+     * Condition on the resource not having been modified since a date.
+     */
+    IF_UNMODIFIED_SINCE("if-unmodified-since"),
+    /**
+     * Date and time at which the resource was last modified.
+     */
+    LAST_MODIFIED("last-modified"),
+    /**
+     * Links to related resources.
+     */
+    LINK("link"),
+    /**
+     * URL to redirect to.
+     */
+    LOCATION("location"),
+    /**
+     * Origin the request comes from.
+     */
+    ORIGIN("origin"),
+    /**
+     * Implementation-specific directives, such as HTTP/1.0 caching.
+     */
+    PRAGMA("pragma"),
+    /**
+     * Part of the content the server should return.
+     */
+    RANGE("range"),
+    /**
+     * Address of the page the request was made from.
+     */
+    REFERER("referer"),
+    /**
+     * How long to wait before making a follow-up request.
+     */
+    RETRY_AFTER("retry-after"),
+    /**
+     * Software used by the server.
+     */
+    SERVER("server"),
+    /**
+     * Cookie sent from the server to the client.
+     */
+    SET_COOKIE("set-cookie"),
+    /**
+     * Whether the site should only be accessed using HTTPS.
+     */
+    STRICT_TRANSPORT_SECURITY("strict-transport-security"),
+    /**
+     * Encoding used to transfer the message.
+     */
+    TRANSFER_ENCODING("transfer-encoding"),
+    /**
+     * Protocols the client would like to switch to.
+     */
+    UPGRADE("upgrade"),
+    /**
+     * Software making the request.
+     */
+    USER_AGENT("user-agent"),
+    /**
+     * Request headers the response varies on.
+     */
+    VARY("vary"),
+    /**
+     * Proxies the message passed through.
+     */
+    VIA("via"),
+    /**
+     * Authentication methods to access a resource.
+     */
+    WWW_AUTHENTICATE("www-authenticate"),
+    /**
+     * Addresses of the client and proxies the request passed through.
+     */
+    X_FORWARDED_FOR("x-forwarded-for"),
+    /**
+     * Protocol the client used to connect to a proxy.
+     */
+    X_FORWARDED_PROTO("x-forwarded-proto"),
+    /**
+     * Library a request was made with, such as XMLHttpRequest.
+     */
+    X_REQUESTED_WITH("x-requested-with");
+
+    private static final KnownHeader[] VALUES = values();
+    private static final Map<String, KnownHeader> BY_NAME = new HashMap<>();
+    /**
+     * The names of all known headers, in the order of their ordinals.
+     */
+    static final String[] NAMES = new String[VALUES.length];
+
+    static {
+        for (KnownHeader header : VALUES) {
+            BY_NAME.put(header.name, header);
+            NAMES[header.ordinal()] = header.name;
+        }
+    }
+
+    @NotNull
+    private final String name;
+
+    KnownHeader(@NotNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * The header name in lower case, which is the instance used by all headers built with this name.
+     *
+     * @return the header name
+     */
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The known header with the given lower case name.
+     *
+     * @param name the lower case header name
+     * @return the known header, or null if the name is not a known one
+     */
+    @Nullable
+    public static KnownHeader forName(@NotNull String name) {
+        return BY_NAME.get(name);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON value in the raw bytes of a record, decoded when first needed.
+ *
+ * @see HttpExchangeReader.Options#isLazy()
+ */
+final class LazyJsonValue {
+    private final HttpExchangeDecoder decoder;
+    private final byte[] source;
+    private final int offset;
+
+    LazyJsonValue(HttpExchangeDecoder decoder, byte[] source, int offset) {
+        this.decoder = decoder;
+        this.source = source;
+        this.offset = offset;
+    }
+
+    private JsonTokenizer tokenizer() {
+        return new JsonTokenizer(ByteBuffer.wrap(source, offset, source.length - offset));
+    }
+
+    HttpHeaders decodeHeaders() {
+        try {
+            return decoder.readHeaders(tokenizer());
+        } catch (IOException e) {
+            // Should not happen.
+            throw new RuntimeException(e);
+        }
+    }
+
+    Map<String, List<String>> decodeQuery() {
+        try {
+            return decoder.readQuery(tokenizer());
+        } catch (IOException e) {
+            // Should not happen.
+            throw new RuntimeException(e);
+        }
+    }
+
+    String decodeString() {
+        try {
+            return tokenizer().nextString();
+        } catch (IOException e) {
+            // Should not happen.
+            throw new RuntimeException(e);
+        }
+    }
+
+    byte[] decodeStringBytes() {
+        try {
+            return tokenizer().nextStringBytes();
+        } catch (IOException e) {
+            // Should not happen.
+            throw new RuntimeException(e);
+        }
+    }
+
+}
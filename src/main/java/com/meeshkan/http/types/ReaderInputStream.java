@@ -0,0 +1,77 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input stream of the UTF-8 encoding of the characters read from a {@link Reader}.
+ * <p>
+ * Used to feed character input to the byte oriented {@link JsonTokenizer}.
+ */
+final class ReaderInputStream extends InputStream {
+    private final Reader reader;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+    private final ByteBuffer bytes = ByteBuffer.allocate(4096 * 3);
+    private boolean endOfInput;
+    private boolean flushed;
+
+    ReaderInputStream(Reader reader) {
+        this.reader = reader;
+        chars.flip();
+        bytes.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!bytes.hasRemaining()) {
+            if (flushed) {
+                return -1;
+            }
+            encodeMore();
+        }
+        int count = Math.min(len, bytes.remaining());
+        bytes.get(b, off, count);
+        return count;
+    }
+
+    private void encodeMore() throws IOException {
+        bytes.clear();
+        if (!endOfInput) {
+            chars.compact();
+            if (reader.read(chars) == -1) {
+                endOfInput = true;
+            }
+            chars.flip();
+        }
+        encoder.encode(chars, bytes, endOfInput);
+        if (endOfInput && !chars.hasRemaining()) {
+            encoder.flush(bytes);
+            flushed = true;
+        }
+        bytes.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
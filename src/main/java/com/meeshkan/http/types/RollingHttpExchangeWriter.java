@@ -0,0 +1,633 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writer of {@link HttpExchange HTTP exchanges} to a directory of segment files, each in the
+ * <a href="https://meeshkan.github.io/http-types/">HTTP Types JSON Lines format</a>.
+ * <p>
+ * Exchanges are written with a {@link HttpExchangeWriter} to the current segment, named
+ * {@code <prefix>-<number>.jsonl}. A new segment is started when the current one reaches the
+ * {@link Options#getMaxSegmentSize() maximum size} or {@link Options#getMaxSegmentAge() maximum age}. Closed segments
+ * are GZIP compressed to {@code <prefix>-<number>.jsonl.gz} on a background thread, unless
+ * {@link Options#isCompress() disabled}, in members that {@link HttpExchangeReader#fromJsonLines(Path)} reads in
+ * parallel, and then listed in the manifest {@code <prefix>.manifest.jsonl} with their
+ * number of exchanges and range of request timestamps. Readers can use {@link #readManifest(Path)} to skip segments
+ * without exchanges of interest and to read the others concurrently.
+ * <p>
+ * A segment reaching the maximum age is closed by the background thread even when no more exchanges are written, so
+ * that idle captures still have their exchanges compressed and listed. Instances are otherwise not thread-safe.
+ */
+public final class RollingHttpExchangeWriter implements Closeable {
+    private static final String SEGMENT_EXTENSION = ".jsonl";
+    private static final String COMPRESSED_EXTENSION = ".gz";
+    private static final String MANIFEST_EXTENSION = ".manifest.jsonl";
+
+    @NotNull
+    private final Path directory;
+    private final Options options;
+    private final Path manifest;
+    private final ScheduledExecutorService compressor;
+    private final List<Future<?>> pendingSegments = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextNumber;
+    private boolean closed;
+
+    private Path segmentFile;
+    private CountingOutputStream segmentOut;
+    private HttpExchangeWriter segmentWriter;
+    private long segmentStartNanos;
+    private long segmentRecords;
+    private Instant segmentMinTimestamp;
+    private Instant segmentMaxTimestamp;
+    /**
+     * Closing of the current segment once it reaches the maximum age, if limited.
+     */
+    private Future<?> segmentExpiry;
+
+    /**
+     * Creates a rolling HTTP exchange writer with the default options that writes segments to the specified directory.
+     *
+     * @param directory Existing directory where to write the segments and manifest
+     * @throws IOException if listing the directory fails
+     */
+    public RollingHttpExchangeWriter(@NotNull Path directory) throws IOException {
+        this(directory, Options.DEFAULT);
+    }
+
+    /**
+     * Creates a rolling HTTP exchange writer that writes segments to the specified directory.
+     * <p>
+     * Segments already in the directory with the same prefix are kept, and numbering continues after them.
+     *
+     * @param directory Existing directory where to write the segments and manifest
+     * @param options   the options of the writer
+     * @throws IOException if listing the directory fails
+     */
+    public RollingHttpExchangeWriter(@NotNull Path directory, @NotNull Options options) throws IOException {
+        this.directory = directory;
+        this.options = options;
+        this.manifest = directory.resolve(options.getPrefix() + MANIFEST_EXTENSION);
+        this.nextNumber = nextSegmentNumber(directory, options.getPrefix());
+        this.compressor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-exchange-segment-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static int nextSegmentNumber(Path directory, String prefix) throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(prefix) + "-(\\d+)" + Pattern.quote(SEGMENT_EXTENSION) + "(?:" + Pattern.quote(COMPRESSED_EXTENSION) + ")?");
+        int next = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    next = Math.max(next, Integer.parseInt(matcher.group(1)) + 1);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Writes a HTTP exchange as a single JSON formatted line to the current segment, first starting a new segment if
+     * the current one is full or too old.
+     *
+     * @param exchange The HTTP exchange to write
+     * @throws IllegalStateException if the writer is closed
+     * @throws RuntimeException      if writing fails, or compressing or listing a previous segment has failed, with
+     *                               the cause of the failure
+     * @see #writeAll(Collection)
+     */
+    public synchronized void write(@NotNull HttpExchange exchange) {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        try {
+            if (segmentWriter != null && isSegmentFull()) {
+                closeSegment();
+            }
+            if (segmentWriter == null) {
+                openSegment();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        segmentWriter.write(exchange);
+        segmentRecords++;
+        Instant timestamp = exchange.getRequest().getTimestamp();
+        if (timestamp != null) {
+            if (segmentMinTimestamp == null || timestamp.isBefore(segmentMinTimestamp)) {
+                segmentMinTimestamp = timestamp;
+            }
+            if (segmentMaxTimestamp == null || timestamp.isAfter(segmentMaxTimestamp)) {
+                segmentMaxTimestamp = timestamp;
+            }
+        }
+    }
+
+    /**
+     * Writes multiple HTTP Exchanges, each formatted in JSON format on a single line.
+     *
+     * @param exchanges The HTTP exchanges to write
+     * @see #write(HttpExchange)
+     */
+    public void writeAll(@NotNull Collection<HttpExchange> exchanges) {
+        for (HttpExchange exchange : exchanges) {
+            write(exchange);
+        }
+    }
+
+    private boolean isSegmentFull() {
+        // The size lags behind by what the segment writer buffers, at most a few kilobytes.
+        if (segmentOut.count >= options.getMaxSegmentSize()) {
+            return true;
+        }
+        Duration maxAge = options.getMaxSegmentAge();
+        return maxAge != null && System.nanoTime() - segmentStartNanos >= maxAge.toNanos();
+    }
+
+    private void openSegment() throws IOException {
+        segmentFile = directory.resolve(String.format("%s-%05d%s", options.getPrefix(), nextNumber++, SEGMENT_EXTENSION));
+        segmentOut = new CountingOutputStream(Files.newOutputStream(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        segmentWriter = new HttpExchangeWriter(segmentOut);
+        segmentStartNanos = System.nanoTime();
+        segmentRecords = 0;
+        segmentMinTimestamp = null;
+        segmentMaxTimestamp = null;
+        Duration maxAge = options.getMaxSegmentAge();
+        if (maxAge != null) {
+            // Failures are reported like those of compressing segments.
+            segmentExpiry = compressor.schedule(this::closeExpiredSegment, maxAge.toNanos(), TimeUnit.NANOSECONDS);
+            pendingSegments.add(segmentExpiry);
+        }
+    }
+
+    private synchronized Void closeExpiredSegment() throws IOException {
+        if (!closed && segmentWriter != null && isSegmentFull()) {
+            closeSegment();
+        }
+        return null;
+    }
+
+    private void closeSegment() throws IOException {
+        segmentWriter.close();
+        Path file = segmentFile;
+        long records = segmentRecords;
+        Instant minTimestamp = segmentMinTimestamp;
+        Instant maxTimestamp = segmentMaxTimestamp;
+        segmentWriter = null;
+        segmentOut = null;
+        segmentFile = null;
+        // Segments are compressed and added to the manifest by a single thread, so in the order they were written.
+        pendingSegments.add(compressor.submit(() -> {
+            Path finished = options.isCompress() ? compress(file) : file;
+            addToManifest(new Segment(finished, records, minTimestamp, maxTimestamp));
+            return null;
+        }));
+        awaitSegments(false);
+        cancelSegmentExpiry();
+    }
+
+    private void cancelSegmentExpiry() {
+        if (segmentExpiry != null) {
+            segmentExpiry.cancel(false);
+            pendingSegments.remove(segmentExpiry);
+            segmentExpiry = null;
+        }
+    }
+
+    /**
+     * Remove the segments done compressing and listing from the pending ones, throwing the first failure.
+     *
+     * @param wait whether to wait for all segments, or only remove those already done
+     */
+    private void awaitSegments(boolean wait) throws IOException {
+        for (Iterator<Future<?>> iterator = pendingSegments.iterator(); iterator.hasNext(); ) {
+            Future<?> pending = iterator.next();
+            if (!wait && !pending.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing segments");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compress a segment as GZIP members of whole lines, so that it can be read in parallel like the output of a
+     * {@link HttpExchangeWriter} with GZIP enabled.
+     */
+    private static Path compress(Path file) throws IOException {
+        Path compressed = file.resolveSibling(file.getFileName() + COMPRESSED_EXTENSION);
+        Path temporary = file.resolveSibling(compressed.getFileName() + ".tmp");
+        GzipMemberWriter gzip = new GzipMemberWriter();
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = Files.newOutputStream(temporary)) {
+            byte[] buffer = new byte[HttpExchangeWriter.Options.DEFAULT.getGzipMemberSize()];
+            int size = 0;
+            for (int read; (read = in.read(buffer, size, buffer.length - size)) >= 0; ) {
+                size += read;
+                if (size < buffer.length) {
+                    continue;
+                }
+                int memberEnd = size;
+                while (memberEnd > 0 && buffer[memberEnd - 1] != '\n') {
+                    memberEnd--;
+                }
+                if (memberEnd == 0) {
+                    // A single line larger than the buffer.
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                gzip.write(buffer, 0, memberEnd, out);
+                System.arraycopy(buffer, memberEnd, buffer, 0, size - memberEnd);
+                size -= memberEnd;
+            }
+            gzip.write(buffer, 0, size, out);
+        } finally {
+            gzip.end();
+        }
+        Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(file);
+        return compressed;
+    }
+
+    private void addToManifest(Segment segment) throws IOException {
+        try (Writer out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            JSONWriter json = new JSONWriter(out)
+                    .object()
+                    .key("file").value(segment.getFile().getFileName().toString())
+                    .key("records").value(segment.getRecords());
+            if (segment.getMinRequestTimestamp() != null) {
+                json.key("minRequestTimestamp").value(segment.getMinRequestTimestamp().toString())
+                        .key("maxRequestTimestamp").value(segment.getMaxRequestTimestamp().toString());
+            }
+            json.endObject();
+            out.write('\n');
+        }
+        synchronized (segments) {
+            segments.add(segment);
+        }
+    }
+
+    /**
+     * The manifest listing the segments closed by this writer and any previous writer with the same prefix.
+     *
+     * @return the path of the manifest
+     * @see #readManifest(Path)
+     */
+    @NotNull
+    public Path getManifest() {
+        return manifest;
+    }
+
+    /**
+     * The segments closed by this writer and listed in the manifest so far, excluding segments still being
+     * compressed.
+     *
+     * @return the segments in the order they were written
+     */
+    @NotNull
+    public List<Segment> getSegments() {
+        synchronized (segments) {
+            return Collections.unmodifiableList(new ArrayList<>(segments));
+        }
+    }
+
+    /**
+     * Closes the current segment and waits for all segments to be compressed and listed in the manifest.
+     *
+     * @throws IOException if writing, compressing or listing any segment failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    if (segmentWriter != null) {
+                        closeSegment();
+                    }
+                } finally {
+                    cancelSegmentExpiry();
+                }
+            }
+            // Not holding the lock, which a segment expiry already running on the background thread waits for.
+            awaitSegments(true);
+        } finally {
+            compressor.shutdown();
+        }
+    }
+
+    /**
+     * Reads a manifest written by a {@link RollingHttpExchangeWriter}.
+     *
+     * @param manifest Path of the manifest, in the same directory as the segments
+     * @return the listed segments in the order they were written
+     * @throws IOException   if reading the manifest fails
+     * @throws JSONException if the manifest is malformed
+     */
+    @NotNull
+    public static List<Segment> readManifest(@NotNull Path manifest) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            JSONObject json = new JSONObject(line);
+            segments.add(new Segment(
+                    manifest.resolveSibling(json.getString("file")),
+                    json.getLong("records"),
+                    readTimestamp(json, "minRequestTimestamp"),
+                    readTimestamp(json, "maxRequestTimestamp")));
+        }
+        return segments;
+    }
+
+    private static Instant readTimestamp(JSONObject json, String key) {
+        if (!json.has(key)) {
+            return null;
+        }
+        Instant timestamp = Iso8601.parse(json.getString(key));
+        if (timestamp == null) {
+            throw new JSONException("Invalid " + key + ": " + json.getString(key));
+        }
+        return timestamp;
+    }
+
+    /**
+     * A closed segment listed in a manifest.
+     */
+    public static final class Segment {
+        @NotNull
+        private final Path file;
+        private final long records;
+        @Nullable
+        private final Instant minRequestTimestamp;
+        @Nullable
+        private final Instant maxRequestTimestamp;
+
+        private Segment(@NotNull Path file, long records, @Nullable Instant minRequestTimestamp, @Nullable Instant maxRequestTimestamp) {
+            this.file = file;
+            this.records = records;
+            this.minRequestTimestamp = minRequestTimestamp;
+            this.maxRequestTimestamp = maxRequestTimestamp;
+        }
+
+        /**
+         * The segment file, ending with ".jsonl.gz" if compressed.
+         *
+         * @return the path of the segment
+         */
+        @NotNull
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the number of exchanges in the segment
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * The earliest request timestamp in the segment.
+         *
+         * @return the timestamp, or null if no request in the segment has a timestamp
+         */
+        @Nullable
+        public Instant getMinRequestTimestamp() {
+            return minRequestTimestamp;
+        }
+
+        /**
+         * The latest request timestamp in the segment.
+         *
+         * @return the timestamp, or null if no request in the segment has a timestamp
+         */
+        @Nullable
+        public Instant getMaxRequestTimestamp() {
+            return maxRequestTimestamp;
+        }
+
+        /**
+         * Whether the segment may contain requests with timestamps in the given range, to skip segments that cannot.
+         *
+         * @param from Inclusive start of the range, or null for no start
+         * @param to   Exclusive end of the range, or null for no end
+         * @return false if no request in the segment has a timestamp in the range
+         */
+        public boolean mayContainRequestTimestamps(@Nullable Instant from, @Nullable Instant to) {
+            if (minRequestTimestamp == null) {
+                return false;
+            }
+            return (from == null || !maxRequestTimestamp.isBefore(from)) && (to == null || minRequestTimestamp.isBefore(to));
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" +
+                    "file=" + file +
+                    ", records=" + records +
+                    ", minRequestTimestamp=" + minRequestTimestamp +
+                    ", maxRequestTimestamp=" + maxRequestTimestamp +
+                    '}';
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Options of a {@link RollingHttpExchangeWriter}.
+     */
+    public static final class Options {
+        /**
+         * The options used by the constructor not taking any options.
+         */
+        public static final Options DEFAULT = new Options.Builder().build();
+
+        private final String prefix;
+        private final long maxSegmentSize;
+        private final Duration maxSegmentAge;
+        private final boolean compress;
+
+        private Options(String prefix, long maxSegmentSize, Duration maxSegmentAge, boolean compress) {
+            this.prefix = prefix;
+            this.maxSegmentSize = maxSegmentSize;
+            this.maxSegmentAge = maxSegmentAge;
+            this.compress = compress;
+        }
+
+        /**
+         * The prefix of the segment and manifest file names, "exchanges" by default.
+         *
+         * @return the file name prefix
+         */
+        @NotNull
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * The uncompressed size in bytes after which a new segment is started, 64 MiB by default.
+         *
+         * @return the maximum segment size
+         */
+        public long getMaxSegmentSize() {
+            return maxSegmentSize;
+        }
+
+        /**
+         * The time since the first exchange of a segment after which a new segment is started, null by default for
+         * segments limited by size only.
+         *
+         * @return the maximum segment age, or null if not limited
+         */
+        @Nullable
+        public Duration getMaxSegmentAge() {
+            return maxSegmentAge;
+        }
+
+        /**
+         * Whether closed segments are GZIP compressed, true by default.
+         *
+         * @return true if closed segments are compressed
+         */
+        public boolean isCompress() {
+            return compress;
+        }
+
+        /**
+         * Builder of immutable {@link Options} instances.
+         */
+        public static class Builder {
+            private String prefix = "exchanges";
+            private long maxSegmentSize = 64L * 1024 * 1024;
+            private Duration maxSegmentAge;
+            private boolean compress = true;
+
+            /**
+             * Set the prefix of the segment and manifest file names.
+             *
+             * @param prefix the file name prefix
+             * @return this builder
+             * @see #getPrefix()
+             */
+            public Options.Builder prefix(@NotNull String prefix) {
+                if (prefix.isEmpty() || prefix.contains("/") || prefix.contains(File.separator)) {
+                    throw new IllegalArgumentException("Invalid prefix: " + prefix);
+                }
+                this.prefix = prefix;
+                return this;
+            }
+
+            /**
+             * Set the uncompressed size in bytes after which a new segment is started.
+             *
+             * @param maxSegmentSize the maximum segment size
+             * @return this builder
+             * @see #getMaxSegmentSize()
+             */
+            public Options.Builder maxSegmentSize(long maxSegmentSize) {
+                if (maxSegmentSize < 1) {
+                    throw new IllegalArgumentException("Invalid maximum segment size: " + maxSegmentSize);
+                }
+                this.maxSegmentSize = maxSegmentSize;
+                return this;
+            }
+
+            /**
+             * Set the time since the first exchange of a segment after which a new segment is started.
+             *
+             * @param maxSegmentAge the maximum segment age, or null to not limit it
+             * @return this builder
+             * @see #getMaxSegmentAge()
+             */
+            public Options.Builder maxSegmentAge(@Nullable Duration maxSegmentAge) {
+                if (maxSegmentAge != null && (maxSegmentAge.isNegative() || maxSegmentAge.isZero())) {
+                    throw new IllegalArgumentException("Invalid maximum segment age: " + maxSegmentAge);
+                }
+                this.maxSegmentAge = maxSegmentAge;
+                return this;
+            }
+
+            /**
+             * Set whether closed segments are GZIP compressed.
+             *
+             * @param compress true to compress closed segments
+             * @return this builder
+             * @see #isCompress()
+             */
+            public Options.Builder compress(boolean compress) {
+                this.compress = compress;
+                return this;
+            }
+
+            /**
+             * Create writer options using the properties set on this builder.
+             *
+             * @return the built instance
+             */
+            public Options build() {
+                return new Options(prefix, maxSegmentSize, maxSegmentAge, compress);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.meeshkan.http.types;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded dictionary of canonical instances of small strings, such as hosts, header names and values, pathnames and
+ * query parameter names, which repeat in almost every exchange of a recording.
+ * <p>
+ * When set on {@link HttpExchangeReader.Options.Builder#stringDictionary(StringDictionary) reader options}, repeated
+ * strings are looked up by their UTF-8 bytes in the input, before any string is created, and all exchanges read share
+ * the same instance. This saves both decoding time and, when many exchanges are held in memory, most of the memory of
+ * their strings.
+ * <p>
+ * The dictionary is a fixed size, two-way associative cache: a string evicts the least recently added of the two
+ * strings in its slot, so the dictionary never grows and strings seen only once do not stay in it for long. Use
+ * {@link #getHitRate()} to choose a capacity. Instances are thread-safe and can be shared between readers.
+ */
+public final class StringDictionary {
+    /**
+     * The capacity of dictionaries created with the default constructor.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * The maximum length in bytes of strings added to dictionaries created with the default constructor.
+     */
+    public static final int DEFAULT_MAXIMUM_LENGTH = 256;
+
+    /**
+     * Slots of two entries each, at even and odd indexes with the most recently added entry first.
+     * <p>
+     * Entries are immutable, so reading and replacing them without synchronization is safe: a reader sees either the
+     * old or the new entry of a slot, and a concurrent insert may at worst be lost.
+     */
+    private final Entry[] entries;
+    private final int slotMask;
+    private final int maximumLength;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a dictionary with the default capacity and maximum string length.
+     */
+    public StringDictionary() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAXIMUM_LENGTH);
+    }
+
+    /**
+     * Create a dictionary of the given size.
+     *
+     * @param capacity      the maximum number of strings in the dictionary, rounded up to a power of two
+     * @param maximumLength the maximum length in UTF-8 bytes of strings to add to the dictionary, longer ones are not
+     *                      expected to repeat and are always created anew
+     */
+    public StringDictionary(int capacity, int maximumLength) {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        } else if (maximumLength < 0) {
+            throw new IllegalArgumentException("Invalid maximum length: " + maximumLength);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.entries = new Entry[size];
+        this.slotMask = size / 2 - 1;
+        this.maximumLength = maximumLength;
+    }
+
+    /**
+     * The maximum number of strings in the dictionary.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * The maximum length in UTF-8 bytes of strings in the dictionary.
+     *
+     * @return the maximum length
+     */
+    public int getMaximumLength() {
+        return maximumLength;
+    }
+
+    /**
+     * Number of lookups which found a string in the dictionary.
+     *
+     * @return the number of hits since creation or the last {@link #resetStatistics()}
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups which did not find a string in the dictionary, and added it.
+     *
+     * @return the number of misses since creation or the last {@link #resetStatistics()}
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Fraction of lookups which found a string in the dictionary.
+     *
+     * @return the hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Reset the hit and miss counters to zero, keeping the strings in the dictionary.
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * The canonical instance of the string with the given UTF-8 bytes, which must not contain any JSON escapes.
+     */
+    String intern(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length > maximumLength) {
+            return decode(buffer, start, end);
+        }
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        hash ^= hash >>> 16;
+
+        int index = (hash & slotMask) << 1;
+        Entry first = entries[index];
+        if (first != null && first.matches(hash, buffer, start, end)) {
+            hits.increment();
+            return first.value;
+        }
+        Entry second = entries[index + 1];
+        if (second != null && second.matches(hash, buffer, start, end)) {
+            hits.increment();
+            return second.value;
+        }
+
+        misses.increment();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        entries[index + 1] = first;
+        entries[index] = new Entry(hash, bytes, value);
+        return value;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "StringDictionary{" +
+                "capacity=" + getCapacity() +
+                ", maximumLength=" + maximumLength +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final byte[] bytes;
+        private final String value;
+
+        private Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        private boolean matches(int hash, ByteBuffer buffer, int start, int end) {
+            if (this.hash != hash || bytes.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,520 @@
+package com.meeshkan.http.types;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reader following a http-types JSON Lines file as it grows, such as a recording still being written by a
+ * {@link HttpExchangeWriter}.
+ * <p>
+ * The reader keeps the byte offset of the first unread line, and each {@link #poll()} reads the complete lines added
+ * since. A partially written last line is held back until it is complete. As a {@link HttpExchangeWriter} ends the
+ * last line only when writing the next exchange, a last line without line feed is taken as complete if it holds a
+ * whole JSON object, which no prefix of a JSON object does.
+ * <p>
+ * When the file is truncated the reader starts again from its start. When the file is replaced, as when a log is
+ * rotated, the rest of the previous file is read before following the new file from its start.
+ * <p>
+ * Waiting for new lines uses a {@link WatchService} on the directory of the file to be woken up as soon as the file
+ * changes, together with polling at an interval growing from the {@link Options#getMinPollInterval() minimum} to the
+ * {@link Options#getMaxPollInterval() maximum} while nothing is added, for file systems where watching is slow or not
+ * supported. Instances are not thread-safe.
+ */
+public final class TailingHttpExchangeReader implements Closeable {
+    /**
+     * Maximum number of bytes read at once, unless a single line is larger.
+     */
+    private static final int MAX_CHUNK_SIZE = 8 << 20;
+
+    @NotNull
+    private final Path file;
+    private final Options options;
+    private final HttpExchangeDecoder decoder;
+    /**
+     * Decoder trying the last line without line feed, which should not report a partially written line as malformed.
+     */
+    private final HttpExchangeDecoder strictDecoder;
+    private final WatchService watchService;
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private long linesBeforeOffset;
+    private long pollNanos;
+    private boolean closed;
+
+    /**
+     * Creates a reader following the specified file from its start with the default options.
+     *
+     * @param file the file in http-types JSON Lines format, which need not exist yet
+     * @throws IOException if there is an I/O problem opening the file
+     */
+    public TailingHttpExchangeReader(@NotNull Path file) throws IOException {
+        this(file, Options.DEFAULT);
+    }
+
+    /**
+     * Creates a reader following the specified file.
+     *
+     * @param file    the file in http-types JSON Lines format, which need not exist yet
+     * @param options the options of the reader
+     * @throws IOException if there is an I/O problem opening the file
+     */
+    public TailingHttpExchangeReader(@NotNull Path file, @NotNull Options options) throws IOException {
+        this.file = file;
+        this.options = options;
+        HttpExchangeDecoder decoder = new HttpExchangeDecoder(options.getReaderOptions());
+        HttpExchangeReader.ErrorHandler errorHandler = decoder.getErrorHandler();
+        this.decoder = errorHandler == null ? decoder : decoder.withErrorHandler((lineNumber, lineOffset, error) ->
+                errorHandler.malformedLine(linesBeforeOffset + lineNumber, offset + lineOffset, error));
+        this.strictDecoder = decoder.withErrorHandler(null);
+        this.pollNanos = options.getMinPollInterval().toNanos();
+        this.watchService = options.isWatch() ? watch(file) : null;
+        openIfExists();
+        if (channel != null && options.isFromEnd()) {
+            skipToEnd();
+            // Line numbers are unknown when starting at the end, so they count from there.
+        }
+    }
+
+    /**
+     * Move the offset past the lines already in the file, except for a partially written last line, which is read
+     * once it is complete.
+     */
+    private void skipToEnd() throws IOException {
+        long size = channel.size();
+        long end = size;
+        offset = 0;
+        while (end > 0) {
+            int length = (int) Math.min(end, MAX_CHUNK_SIZE);
+            int lineEnd = lastLineEnd(read(channel, end - length, length));
+            if (lineEnd > 0) {
+                offset = end - length + lineEnd;
+                break;
+            }
+            end -= length;
+        }
+        if (offset < size) {
+            ByteBuffer lastLine = read(channel, offset, (int) Math.min(size - offset, Integer.MAX_VALUE - 8));
+            if (lastLine.limit() > 0 && lastLine.get(lastLine.limit() - 1) == '}') {
+                // Moves the offset to the end if the line is complete, skipping its exchange.
+                readLastLine(lastLine, new ArrayList<>());
+            }
+        }
+    }
+
+    private static WatchService watch(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        WatchService watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            watchService.close();
+            // Polling only.
+            return null;
+        }
+        return watchService;
+    }
+
+    private void openIfExists() throws IOException {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            channel = null;
+            fileKey = null;
+        }
+        offset = 0;
+        linesBeforeOffset = 0;
+    }
+
+    /**
+     * Reads the exchanges in the lines completed since the last call, without waiting.
+     *
+     * @return the new exchanges, empty if there are none
+     * @throws IOException if there is an I/O problem reading the file
+     */
+    @NotNull
+    public List<HttpExchange> poll() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Reader is closed");
+        }
+        List<HttpExchange> exchanges = new ArrayList<>();
+        if (channel == null) {
+            openIfExists();
+            if (channel == null) {
+                return exchanges;
+            }
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Moved away and not replaced yet, so keep following the previous file.
+            attributes = null;
+        }
+        if (attributes != null && fileKey != null && !fileKey.equals(attributes.fileKey())) {
+            // Replaced by another file: finish the previous one, dropping any partially written line.
+            readAvailable(exchanges);
+            channel.close();
+            openIfExists();
+        } else if (channel.size() < offset) {
+            offset = 0;
+            linesBeforeOffset = 0;
+        }
+        if (channel != null) {
+            readAvailable(exchanges);
+        }
+        return exchanges;
+    }
+
+    /**
+     * Reads the exchanges in the lines completed since the last call, waiting for at least one if there are none.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the new exchanges, empty if none were added before the timeout
+     * @throws IOException          if there is an I/O problem reading the file
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @NotNull
+    public List<HttpExchange> poll(long timeout, @NotNull TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            List<HttpExchange> exchanges = poll();
+            if (!exchanges.isEmpty()) {
+                pollNanos = options.getMinPollInterval().toNanos();
+                return exchanges;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return exchanges;
+            }
+            await(Math.min(remaining, pollNanos));
+            pollNanos = Math.min(pollNanos * 2, options.getMaxPollInterval().toNanos());
+        }
+    }
+
+    private void await(long nanos) throws InterruptedException {
+        if (watchService == null) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return;
+        }
+        WatchKey key = watchService.poll(nanos, TimeUnit.NANOSECONDS);
+        if (key != null) {
+            // Any change in the directory is reason enough to check the file again.
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    /**
+     * An endless stream of the exchanges in the file, waiting for new ones as needed. The stream ends when the reader
+     * is closed or the reading thread is interrupted, and closing the stream closes the reader.
+     *
+     * @return a stream of HTTP exchanges read as they are added
+     */
+    @NotNull
+    public Stream<HttpExchange> stream() {
+        Iterator<HttpExchange> iterator = new Iterator<HttpExchange>() {
+            private Iterator<HttpExchange> batch = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (!batch.hasNext() && !closed) {
+                        batch = poll(options.getMaxPollInterval().toNanos(), TimeUnit.NANOSECONDS).iterator();
+                    }
+                    return batch.hasNext();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            @Override
+            public HttpExchange next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
+        };
+        Spliterator<HttpExchange> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Read the complete lines from the offset to the current end of the file.
+     */
+    private void readAvailable(List<HttpExchange> exchanges) throws IOException {
+        while (true) {
+            long available = channel.size() - offset;
+            if (available <= 0) {
+                return;
+            }
+            ByteBuffer chunk = read(channel, offset, (int) Math.min(available, MAX_CHUNK_SIZE));
+            int end = lastLineEnd(chunk);
+            if (end == 0 && chunk.limit() < available) {
+                // A single line larger than the chunk.
+                chunk = read(channel, offset, (int) Math.min(available, Integer.MAX_VALUE - 8));
+                end = lastLineEnd(chunk);
+            }
+            if (end > 0) {
+                chunk.limit(end);
+                JsonTokenizer json = new JsonTokenizer(chunk);
+                while (json.hasMoreInput()) {
+                    HttpExchange exchange = decoder.readJsonLine(json);
+                    // Exchanges not matching the filter, or malformed in lenient mode, are read as null.
+                    if (exchange != null) {
+                        exchanges.add(exchange);
+                    }
+                }
+                offset += end;
+                linesBeforeOffset += json.lineNumber() - 1;
+            } else {
+                if (chunk.limit() == available && chunk.limit() > 0 && chunk.get(chunk.limit() - 1) == '}') {
+                    readLastLine(chunk, exchanges);
+                }
+                return;
+            }
+        }
+    }
+
+    private void readLastLine(ByteBuffer line, List<HttpExchange> exchanges) throws IOException {
+        HttpExchange exchange;
+        try {
+            exchange = strictDecoder.readJsonLine(new JsonTokenizer(line.duplicate()));
+        } catch (RuntimeException e) {
+            // Not complete yet, or malformed and then reported once its line is ended.
+            return;
+        }
+        if (exchange != null) {
+            exchanges.add(exchange);
+        }
+        offset += line.limit();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int lastLineEnd(ByteBuffer chunk) {
+        for (int i = chunk.limit() - 1; i >= 0; i--) {
+            if (chunk.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The byte offset in the current file up to which lines have been read.
+     *
+     * @return the offset of the first unread byte
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+    }
+
+    /**
+     * Options of a {@link TailingHttpExchangeReader}.
+     */
+    public static final class Options {
+        /**
+         * The options used by the constructor not taking any options.
+         */
+        public static final Options DEFAULT = new Options.Builder().build();
+
+        private final HttpExchangeReader.Options readerOptions;
+        private final boolean fromEnd;
+        private final boolean watch;
+        private final Duration minPollInterval;
+        private final Duration maxPollInterval;
+
+        private Options(HttpExchangeReader.Options readerOptions, boolean fromEnd, boolean watch, Duration minPollInterval, Duration maxPollInterval) {
+            this.readerOptions = readerOptions;
+            this.fromEnd = fromEnd;
+            this.watch = watch;
+            this.minPollInterval = minPollInterval;
+            this.maxPollInterval = maxPollInterval;
+        }
+
+        /**
+         * The options used to decode the exchanges, {@link HttpExchangeReader.Options#DEFAULT} by default.
+         *
+         * @return the reader options
+         */
+        @NotNull
+        public HttpExchangeReader.Options getReaderOptions() {
+            return readerOptions;
+        }
+
+        /**
+         * Whether to skip the exchanges already in the file when the reader is created, false by default. A last line
+         * still being written at that time is not skipped, but read once complete. Line numbers then count from the
+         * end of the lines skipped.
+         *
+         * @return true if reading starts at the end of the file
+         */
+        public boolean isFromEnd() {
+            return fromEnd;
+        }
+
+        /**
+         * Whether to watch the directory of the file for changes while waiting, true by default.
+         *
+         * @return true if using a watch service
+         */
+        public boolean isWatch() {
+            return watch;
+        }
+
+        /**
+         * The interval between checks of the file right after exchanges were added, 10 milliseconds by default.
+         *
+         * @return the minimum poll interval
+         */
+        @NotNull
+        public Duration getMinPollInterval() {
+            return minPollInterval;
+        }
+
+        /**
+         * The interval between checks of the file after nothing was added for a while, 1 second by default.
+         *
+         * @return the maximum poll interval
+         */
+        @NotNull
+        public Duration getMaxPollInterval() {
+            return maxPollInterval;
+        }
+
+        /**
+         * Builder of immutable {@link Options} instances.
+         */
+        public static class Builder {
+            private HttpExchangeReader.Options readerOptions = HttpExchangeReader.Options.DEFAULT;
+            private boolean fromEnd;
+            private boolean watch = true;
+            private Duration minPollInterval = Duration.ofMillis(10);
+            private Duration maxPollInterval = Duration.ofSeconds(1);
+
+            /**
+             * Set the options used to decode the exchanges.
+             *
+             * @param readerOptions the reader options
+             * @return this builder
+             * @see #getReaderOptions()
+             */
+            public Options.Builder readerOptions(@NotNull HttpExchangeReader.Options readerOptions) {
+                this.readerOptions = Objects.requireNonNull(readerOptions);
+                return this;
+            }
+
+            /**
+             * Set whether to skip the exchanges already in the file when the reader is created.
+             *
+             * @param fromEnd true to start reading at the end of the file
+             * @return this builder
+             * @see #isFromEnd()
+             */
+            public Options.Builder fromEnd(boolean fromEnd) {
+                this.fromEnd = fromEnd;
+                return this;
+            }
+
+            /**
+             * Set whether to watch the directory of the file for changes while waiting.
+             *
+             * @param watch true to use a watch service
+             * @return this builder
+             * @see #isWatch()
+             */
+            public Options.Builder watch(boolean watch) {
+                this.watch = watch;
+                return this;
+            }
+
+            /**
+             * Set the range of intervals between checks of the file while waiting.
+             *
+             * @param minPollInterval the interval right after exchanges were added
+             * @param maxPollInterval the interval after nothing was added for a while
+             * @return this builder
+             * @see #getMinPollInterval()
+             * @see #getMaxPollInterval()
+             */
+            public Options.Builder pollInterval(@NotNull Duration minPollInterval, @NotNull Duration maxPollInterval) {
+                if (minPollInterval.isNegative() || minPollInterval.isZero() || maxPollInterval.compareTo(minPollInterval) < 0) {
+                    throw new IllegalArgumentException("Invalid poll intervals: " + minPollInterval + ", " + maxPollInterval);
+                }
+                this.minPollInterval = minPollInterval;
+                this.maxPollInterval = maxPollInterval;
+                return this;
+            }
+
+            /**
+             * Create reader options using the properties set on this builder.
+             *
+             * @return the built instance
+             */
+            public Options build() {
+                return new Options(readerOptions, fromEnd, watch, minPollInterval, maxPollInterval);
+            }
+        }
+    }
+
+}
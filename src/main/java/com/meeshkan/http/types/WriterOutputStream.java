@@ -0,0 +1,78 @@
+package com.meeshkan.http.types;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream decoding the UTF-8 bytes written to it into characters written to a {@link Writer}.
+ * <p>
+ * Used to write the output of the byte oriented {@link HttpExchangeEncoder} to character output.
+ */
+final class WriterOutputStream extends OutputStream {
+    private final Writer writer;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /**
+     * Bytes of a character split between two writes.
+     */
+    private final ByteBuffer leftover = ByteBuffer.allocate(4);
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+
+    WriterOutputStream(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+        while (leftover.position() > 0 && bytes.hasRemaining()) {
+            // Complete the split character one byte at a time.
+            leftover.put(bytes.get());
+            leftover.flip();
+            decode(leftover, false);
+            leftover.compact();
+        }
+        decode(bytes, false);
+        while (bytes.hasRemaining()) {
+            leftover.put(bytes.get());
+        }
+    }
+
+    private void decode(ByteBuffer bytes, boolean endOfInput) throws IOException {
+        while (true) {
+            boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+            writer.write(chars.array(), 0, chars.position());
+            chars.clear();
+            if (!overflow) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        leftover.flip();
+        decode(leftover, true);
+        decoder.flush(chars);
+        writer.write(chars.array(), 0, chars.position());
+        writer.close();
+    }
+
+}
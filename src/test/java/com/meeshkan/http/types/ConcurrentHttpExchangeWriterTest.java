@@ -0,0 +1,238 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.meeshkan.http.types.TestExchanges.exchange;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentHttpExchangeWriterTest {
+
+    private static List<String> readPathnames(ByteArrayOutputStream out) {
+        return HttpExchangeReader.fromJsonLines(out.toString())
+                .map(exchange -> exchange.getRequest().getUrl().getPathname())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void concurrentWrites() throws Exception {
+        int threads = 8;
+        int exchangesPerThread = 2000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(out,
+                new ConcurrentHttpExchangeWriter.Options.Builder().capacity(64).build());
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < exchangesPerThread; i++) {
+                    assertTrue(writer.write(exchange("/" + thread + "/" + i)));
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        writer.close();
+        assertThrows(IllegalStateException.class, () -> writer.write(exchange("/closed")));
+
+        assertEquals(threads * exchangesPerThread, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+        assertEquals(0, writer.getQueueDepth());
+        List<String> pathnames = readPathnames(out);
+        assertEquals(threads * exchangesPerThread, new HashSet<>(pathnames).size());
+        // Exchanges of each thread are written in order.
+        for (int t = 0; t < threads; t++) {
+            String prefix = "/" + t + "/";
+            List<String> ofThread = pathnames.stream().filter(pathname -> pathname.startsWith(prefix)).collect(Collectors.toList());
+            for (int i = 0; i < exchangesPerThread; i++) {
+                assertEquals(prefix + i, ofThread.get(i));
+            }
+        }
+    }
+
+    @Test
+    void dropWhenFull() throws Exception {
+        for (ConcurrentHttpExchangeWriter.Backpressure backpressure : new ConcurrentHttpExchangeWriter.Backpressure[]{
+                ConcurrentHttpExchangeWriter.Backpressure.DROP_NEWEST, ConcurrentHttpExchangeWriter.Backpressure.DROP_OLDEST}) {
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            OutputStream slowOut = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    out.write(b, off, len);
+                }
+            };
+            ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(slowOut,
+                    new ConcurrentHttpExchangeWriter.Options.Builder().capacity(4).backpressure(backpressure).build());
+            writer.write(exchange("/0"));
+            blocked.await();
+            // The background thread is now stuck writing the first exchange.
+            for (int i = 1; i < 100; i++) {
+                writer.write(exchange("/" + i));
+            }
+            assertEquals(4, writer.getQueueDepth());
+            assertEquals(95, writer.getDropped());
+            release.countDown();
+            writer.close();
+
+            List<String> pathnames = readPathnames(out);
+            assertEquals(5, pathnames.size());
+            assertEquals(5, writer.getWritten());
+            Set<String> expected = new HashSet<>();
+            expected.add("/0");
+            for (int i = 1; i < 5; i++) {
+                expected.add(backpressure == ConcurrentHttpExchangeWriter.Backpressure.DROP_NEWEST ? "/" + i : "/" + (95 + i));
+            }
+            assertEquals(expected, new HashSet<>(pathnames));
+        }
+    }
+
+    @Test
+    void groupCommit() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(out,
+                new ConcurrentHttpExchangeWriter.Options.Builder()
+                        .durability(ConcurrentHttpExchangeWriter.Durability.FLUSHED)
+                        .build());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(writer.writeAsync(exchange("/" + i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        // Everything is flushed once the futures complete, in fewer flushes than exchanges.
+        assertEquals(1000, readPathnames(out).size());
+        assertTrue(flushes.get() >= 1 && flushes.get() < 1000, "Flushes: " + flushes.get());
+        writer.close();
+    }
+
+    @Test
+    void commitRecordsLargerThanBuffer() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(out,
+                new ConcurrentHttpExchangeWriter.Options.Builder()
+                        .durability(ConcurrentHttpExchangeWriter.Durability.FLUSHED)
+                        .build());
+        char[] body = new char[20 * 1024];
+        Arrays.fill(body, 'x');
+        HttpExchange large = new HttpExchange.Builder()
+                .request(exchange("/large").getRequest())
+                .response(new HttpResponse.Builder()
+                        .statusCode(200)
+                        .body(new String(body))
+                        .build())
+                .build();
+        // Written to the output as soon as it is encoded, and still committed once the queue runs empty.
+        writer.writeAsync(large).get(10, TimeUnit.SECONDS);
+        assertTrue(flushes.get() >= 1);
+        assertEquals(Collections.singletonList("/large"), readPathnames(out));
+        writer.close();
+    }
+
+    @Test
+    void fsync(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentHttpExchangeWriter(new ByteArrayOutputStream(),
+                new ConcurrentHttpExchangeWriter.Options.Builder()
+                        .durability(ConcurrentHttpExchangeWriter.Durability.FSYNC)
+                        .build()));
+        try (ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(
+                FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                new ConcurrentHttpExchangeWriter.Options.Builder()
+                        .durability(ConcurrentHttpExchangeWriter.Durability.FSYNC)
+                        .build())) {
+            writer.writeAsync(exchange("/0")).get(10, TimeUnit.SECONDS);
+            writer.writeAsync(exchange("/1")).get(10, TimeUnit.SECONDS);
+            assertEquals(2, HttpExchangeReader.fromJsonLines(file).count());
+        }
+    }
+
+    @Test
+    void failedFutures() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream failingOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("Disk full");
+            }
+        };
+        ConcurrentHttpExchangeWriter writer = new ConcurrentHttpExchangeWriter(failingOut,
+                new ConcurrentHttpExchangeWriter.Options.Builder()
+                        .capacity(2)
+                        .backpressure(ConcurrentHttpExchangeWriter.Backpressure.DROP_NEWEST)
+                        .build());
+        CompletableFuture<Void> first = writer.writeAsync(exchange("/0"));
+        blocked.await();
+        CompletableFuture<Void> second = writer.writeAsync(exchange("/1"));
+        writer.writeAsync(exchange("/2"));
+        CompletableFuture<Void> dropped = writer.writeAsync(exchange("/3"));
+        ExecutionException droppedError = assertThrows(ExecutionException.class, dropped::get);
+        assertTrue(droppedError.getCause() instanceof RejectedExecutionException);
+        release.countDown();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertEquals("Disk full", error.getCause().getMessage());
+        error = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+        assertEquals("Disk full", error.getCause().getMessage());
+        assertThrows(IOException.class, writer::close);
+    }
+
+}
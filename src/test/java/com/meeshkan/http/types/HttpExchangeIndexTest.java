@@ -0,0 +1,109 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpExchangeIndexTest {
+
+    private static HttpExchange exchange(int i) {
+        // Every tenth exchange has no timestamp.
+        return TestExchanges.exchange("/" + i, i % 10 == 9 ? null : Instant.ofEpochSecond(1_000_000 + i));
+    }
+
+    private static List<HttpExchange> write(Path file, int from, int to, StandardOpenOption... options) throws IOException {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        try (OutputStream out = Files.newOutputStream(file, options);
+             HttpExchangeWriter writer = new HttpExchangeWriter(out)) {
+            if (from > 0) {
+                // Appending continues the last line of the file.
+                out.write('\n');
+            }
+            for (int i = from; i < to; i++) {
+                exchanges.add(exchange(i));
+            }
+            writer.writeAll(exchanges);
+        }
+        return exchanges;
+    }
+
+    private static List<HttpExchange> inRange(List<HttpExchange> exchanges, Instant from, Instant to) {
+        return exchanges.stream()
+                .filter(exchange -> new HttpExchangeFilter.Builder().requestTimestamps(from, to).build().test(exchange))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void randomAccess(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("exchanges.jsonl");
+        List<HttpExchange> exchanges = write(file, 0, 1000);
+        HttpExchangeIndex built = HttpExchangeIndex.build(file, 64);
+        assertEquals(1000, built.getRecordCount());
+        built.write();
+        assertTrue(Files.exists(HttpExchangeIndex.indexFile(file)));
+
+        HttpExchangeIndex index = HttpExchangeIndex.open(file);
+        assertEquals(64, index.getBlockSize());
+        assertEquals(1000, index.getRecordCount());
+        for (int position : new int[]{0, 1, 63, 64, 65, 500, 999}) {
+            assertEquals(exchanges.get(position), index.get(position));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> index.get(1000));
+        assertThrows(IndexOutOfBoundsException.class, () -> index.get(-1));
+
+        Instant from = Instant.ofEpochSecond(1_000_100);
+        Instant to = Instant.ofEpochSecond(1_000_300);
+        try (Stream<HttpExchange> range = index.getRange(from, to)) {
+            assertEquals(inRange(exchanges, from, to), range.collect(Collectors.toList()));
+        }
+        try (Stream<HttpExchange> range = index.getRange(null, from)) {
+            assertEquals(inRange(exchanges, null, from), range.collect(Collectors.toList()));
+        }
+        try (Stream<HttpExchange> range = index.getRange(null, null)) {
+            assertEquals(exchanges, range.collect(Collectors.toList()));
+        }
+
+        // Exchanges appended after indexing are read on from the last block.
+        exchanges.addAll(write(file, 1000, 1100, StandardOpenOption.APPEND));
+        HttpExchangeIndex stale = HttpExchangeIndex.open(file);
+        assertEquals(exchanges.get(1050), stale.get(1050));
+        Instant appended = Instant.ofEpochSecond(1_000_990);
+        try (Stream<HttpExchange> range = stale.getRange(appended, null)) {
+            assertEquals(inRange(exchanges, appended, null), range.collect(Collectors.toList()));
+        }
+        // The indexed blocks and the appended exchanges are read as separate ranges, which parallel streams split.
+        try (Stream<HttpExchange> range = stale.getRange(null, null)) {
+            assertEquals(exchanges, range.parallel().collect(Collectors.toList()));
+        }
+
+        // Truncated files are detected.
+        write(file, 0, 10);
+        assertThrows(IOException.class, () -> HttpExchangeIndex.open(file));
+    }
+
+    @Test
+    void emptyFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("exchanges.jsonl");
+        write(file, 0, 0);
+        HttpExchangeIndex.build(file).write();
+        HttpExchangeIndex index = HttpExchangeIndex.open(file);
+        assertEquals(0, index.getRecordCount());
+        assertThrows(IndexOutOfBoundsException.class, () -> index.get(0));
+        try (Stream<HttpExchange> range = index.getRange(null, null)) {
+            assertEquals(0, range.count());
+        }
+    }
+
+}
@@ -1,19 +1,31 @@
 package com.meeshkan.http.types;
 
+import org.json.JSONWriter;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.leadpony.justify.api.JsonSchema;
 import org.leadpony.justify.api.JsonValidationService;
 import org.leadpony.justify.api.ProblemHandler;
 
 import javax.json.stream.JsonParser;
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -69,6 +81,8 @@ public class HttpExchangeTest {
 
         assertEquals("*/*", exchange.getRequest().getHeaders().getFirst("accept"));
         assertEquals("Mozilla/5.0 (pc-x86_64-linux-gnu) Siege/3.0.8", exchange.getRequest().getHeaders().getFirst("user-agent"));
+        assertEquals("*/*", exchange.getRequest().getHeaders().getFirst(KnownHeader.ACCEPT));
+        assertTrue(exchange.getRequest().getHeaders().asMap().keySet().stream().anyMatch(name -> name == KnownHeader.USER_AGENT.getName()));
 
         assertEquals(200, exchange.getResponse().getStatusCode());
         assertEquals("1999", exchange.getResponse().getHeaders().getFirst("content-length"));
@@ -100,6 +114,50 @@ public class HttpExchangeTest {
         assertEquals("1999", exchange.getResponse().getHeaders().getFirst("content-length"));
     }
 
+    @Test
+    void loadFromJsonWithHeaderArraysAndEscapes() throws Exception {
+        StringBuilder longBody = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            longBody.append("\u00e5\\n");
+        }
+        String json = "{\"request\":{\"method\":\"post\",\"protocol\":\"https\",\"host\":\"example.com\",\"pathname\":\"/p\"," +
+                "\"ignored\":{\"nested\":[1,2.5,true,null,{\"x\":\"}\"}]},\"headers\":{\"Accept\":[\"a\",\"b\"],\"x-single\":\"v\\\"q\\u00e5\"}}," +
+                "\"response\":{\"statusCode\":404,\"headers\":{},\"body\":\"" + longBody + "\"}}";
+
+        HttpExchange fromString = HttpExchangeReader.fromJson(json);
+        HttpExchange fromStream = HttpExchangeReader.fromJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        HttpExchange fromReader = HttpExchangeReader.fromJson(new StringReader(json));
+        assertEquals(fromString, fromStream);
+        assertEquals(fromString, fromReader);
+
+        HttpHeaders requestHeaders = fromString.getRequest().getHeaders();
+        assertEquals(Arrays.asList("a", "b"), requestHeaders.getAll("accept"));
+        assertEquals("v\"q\u00e5", requestHeaders.getFirst("x-single"));
+        assertEquals(HttpMethod.POST, fromString.getRequest().getMethod());
+        assertEquals(404, fromString.getResponse().getStatusCode());
+        assertEquals(10000, fromString.getResponse().getBody().length());
+        assertTrue(fromString.getResponse().getBody().startsWith("\u00e5\n\u00e5\n"));
+    }
+
+    @Test
+    void pathnameTakesPrecedenceOverPath() {
+        String withBoth = "{\"request\":{\"method\":\"get\",\"protocol\":\"http\",\"host\":\"h\",\"headers\":{}," +
+                "\"query\":{\"q\":\"v\"},\"path\":\"/ignored?x=y\",\"pathname\":\"/used\"}," +
+                "\"response\":{\"statusCode\":200,\"headers\":{},\"body\":\"\"}}";
+        HttpUrl url = HttpExchangeReader.fromJson(withBoth).getRequest().getUrl();
+        assertEquals("/used", url.getPathname());
+        assertEquals(Collections.singletonMap("q", Collections.singletonList("v")), url.getQueryParameters());
+
+        String withPath = "{\"request\":{\"method\":\"get\",\"protocol\":\"http\",\"host\":\"h\",\"headers\":{}," +
+                "\"query\":{\"q\":\"v\"},\"path\":\"/path?x=y\"}," +
+                "\"response\":{\"statusCode\":200,\"headers\":{},\"body\":\"\"}}";
+        url = HttpExchangeReader.fromJson(withPath).getRequest().getUrl();
+        assertEquals("/path", url.getPathname());
+        assertEquals(Collections.singletonMap("x", Collections.singletonList("y")), url.getQueryParameters());
+
+        assertThrows(RuntimeException.class, () -> HttpExchangeReader.fromJson(withPath.replace("\"path\"", "\"other\"")));
+    }
+
     @Test
     void parseJsonl() throws Exception {
         Supplier<InputStream> input = () -> getClass().getResourceAsStream("/sample.jsonl");
@@ -152,6 +210,651 @@ public class HttpExchangeTest {
         }
     }
 
+    /**
+     * Distinct exchanges, each with its number in the pathname and response body.
+     */
+    private static List<HttpExchange> numberedExchanges(int count) {
+        List<HttpExchange> exchanges = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            exchanges.add(new HttpExchange.Builder()
+                    .request(new HttpRequest.Builder()
+                            .method(HttpMethod.GET)
+                            .url(new HttpUrl.Builder()
+                                    .protocol(HttpProtocol.HTTP)
+                                    .host("example.com")
+                                    .pathname("/path/" + i)
+                                    .build())
+                            .build())
+                    .response(new HttpResponse.Builder()
+                            .statusCode(200)
+                            .body("body " + i)
+                            .build())
+                    .build());
+        }
+        return exchanges;
+    }
+
+    @Test
+    void parseJsonlFileInParallel(@TempDir Path tempDir) throws Exception {
+        List<HttpExchange> exchanges = numberedExchanges(1000);
+        Path file = tempDir.resolve("exchanges.jsonl");
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(file))) {
+            writer.writeAll(exchanges);
+        }
+
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(file)) {
+            assertEquals(exchanges, stream.collect(Collectors.toList()));
+        }
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            JsonLinesSpliterator spliterator = new JsonLinesSpliterator(new HttpExchangeDecoder(HttpExchangeReader.Options.DEFAULT), channel, 0, channel.size(), 1024, 1024);
+            Spliterator<HttpExchange> prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            assertEquals(channel.size(), prefix.estimateSize() + spliterator.estimateSize());
+
+            JsonLinesSpliterator parallelSpliterator = new JsonLinesSpliterator(new HttpExchangeDecoder(HttpExchangeReader.Options.DEFAULT), channel, 0, channel.size(), 1024, 1024);
+            assertEquals(exchanges, StreamSupport.stream(parallelSpliterator, true).collect(Collectors.toList()));
+
+            // Windows smaller than a single line are grown to fit the line.
+            JsonLinesSpliterator smallWindows = new JsonLinesSpliterator(new HttpExchangeDecoder(HttpExchangeReader.Options.DEFAULT), channel, 0, channel.size(), 1024, 16);
+            assertEquals(exchanges, StreamSupport.stream(smallWindows, false).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void resumeFromOffset(@TempDir Path tempDir) throws Exception {
+        List<HttpExchange> exchanges = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"))
+                .collect(Collectors.toList());
+        List<HttpExchange> manyExchanges = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            manyExchanges.addAll(exchanges);
+        }
+        Path file = tempDir.resolve("exchanges.jsonl");
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(file))) {
+            writer.writeAll(manyExchanges);
+        }
+
+        List<HttpExchangeRecord> records;
+        try (Stream<HttpExchangeRecord> stream = HttpExchangeReader.fromJsonLinesWithOffsets(file)) {
+            records = stream.parallel().collect(Collectors.toList());
+        }
+        assertEquals(manyExchanges, records.stream().map(HttpExchangeRecord::getExchange).collect(Collectors.toList()));
+        assertEquals(0, records.get(0).getOffset());
+        for (int i = 1; i < records.size(); i++) {
+            // The next offset is after the line feed ending the line.
+            assertEquals(records.get(i - 1).getNextOffset(), records.get(i).getOffset());
+        }
+        assertEquals(Files.size(file), records.get(records.size() - 1).getNextOffset());
+
+        HttpExchangeRecord checkpoint = records.get(records.size() / 2);
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(file, checkpoint.getNextOffset(), HttpExchangeReader.Options.DEFAULT)) {
+            assertEquals(manyExchanges.subList(records.size() / 2 + 1, records.size()), stream.collect(Collectors.toList()));
+        }
+        try (Stream<HttpExchangeRecord> stream = HttpExchangeReader.fromJsonLinesWithOffsets(file, checkpoint.getOffset(), HttpExchangeReader.Options.DEFAULT)) {
+            assertEquals(records.subList(records.size() / 2, records.size()), stream.collect(Collectors.toList()));
+        }
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(file, Files.size(file), HttpExchangeReader.Options.DEFAULT)) {
+            assertEquals(0, stream.count());
+        }
+        assertThrows(IllegalArgumentException.class, () -> HttpExchangeReader.fromJsonLines(file, Files.size(file) + 1, HttpExchangeReader.Options.DEFAULT));
+
+        Path gzipFile = tempDir.resolve("exchanges.jsonl.gz");
+        new HttpExchangeWriter(Files.newOutputStream(gzipFile), new HttpExchangeWriter.Options.Builder().gzip(true).build()).close();
+        assertThrows(IllegalArgumentException.class, () -> HttpExchangeReader.fromJsonLinesWithOffsets(gzipFile));
+    }
+
+    @Test
+    void bytesAndByteBuffers() throws Exception {
+        List<HttpExchange> exchanges = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"))
+                .collect(Collectors.toList());
+        for (HttpExchange exchange : exchanges) {
+            String json = toJsonLine(exchange);
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            byte[] padded = new byte[bytes.length + 4];
+            System.arraycopy(bytes, 0, padded, 2, bytes.length);
+            assertEquals(exchange, HttpExchangeReader.fromJson(padded, 2, bytes.length));
+
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(bytes.length + 1), ByteBuffer.allocateDirect(bytes.length + 1)}) {
+                buffer.put((byte) ' ');
+                assertEquals(bytes.length, HttpExchangeWriter.toJson(exchange, buffer));
+                assertEquals(bytes.length + 1, buffer.position());
+                buffer.flip();
+                assertEquals(exchange, HttpExchangeReader.fromJson(buffer));
+                assertEquals(0, buffer.position());
+                byte[] written = new byte[bytes.length];
+                buffer.position(1);
+                buffer.get(written);
+                assertArrayEquals(bytes, written);
+            }
+
+            ByteBuffer small = ByteBuffer.allocate(bytes.length - 1);
+            assertThrows(BufferOverflowException.class, () -> HttpExchangeWriter.toJson(exchange, small));
+            assertEquals(0, small.position());
+        }
+    }
+
+    @Test
+    void readBatches(@TempDir Path tempDir) throws Exception {
+        List<HttpExchange> sample = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"))
+                .collect(Collectors.toList());
+        List<HttpExchange> exchanges = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            exchanges.addAll(sample);
+        }
+        Path file = tempDir.resolve("exchanges.jsonl");
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(file))) {
+            writer.writeAll(exchanges);
+        }
+
+        try (HttpExchangeBatchReader reader = HttpExchangeReader.batchesFromJsonLines(Files.newInputStream(file))) {
+            List<HttpExchange> read = new ArrayList<>();
+            HttpExchange[] batch = new HttpExchange[16];
+            assertEquals(0, reader.read(batch, 0, 0));
+            assertEquals(3, reader.read(batch, 5, 3));
+            read.addAll(Arrays.asList(batch).subList(5, 8));
+            for (int count; (count = reader.read(batch)) > 0; ) {
+                assertTrue(count == 16 || read.size() + count == exchanges.size());
+                read.addAll(Arrays.asList(batch).subList(0, count));
+            }
+            assertEquals(-1, reader.read(batch));
+            assertEquals(exchanges, read);
+        }
+
+        for (Path input : new Path[]{file, tempDir.resolve("exchanges.jsonl.gz")}) {
+            if (input != file) {
+                try (HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(input),
+                        new HttpExchangeWriter.Options.Builder().gzip(true).gzipMemberRecords(7).build())) {
+                    writer.writeAll(exchanges);
+                }
+            }
+            List<Integer> batchSizes = new ArrayList<>();
+            List<HttpExchange> read = new ArrayList<>();
+            try (HttpExchangeBatchReader reader = HttpExchangeReader.batchesFromJsonLines(input)) {
+                reader.forEachBatch(30, batch -> {
+                    batchSizes.add(batch.size());
+                    read.addAll(batch);
+                });
+            }
+            assertEquals(exchanges, read);
+            assertEquals(Arrays.asList(30, 30, 30, 10), batchSizes);
+        }
+    }
+
+    @Test
+    void gzipJsonLines(@TempDir Path tempDir) throws Exception {
+        List<HttpExchange> exchanges = numberedExchanges(1000);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(plain)) {
+            writer.writeAll(exchanges);
+        }
+        Path file = tempDir.resolve("exchanges.jsonl.gz");
+        HttpExchangeWriter.Options options = new HttpExchangeWriter.Options.Builder()
+                .gzip(true)
+                .gzipMemberRecords(30)
+                .gzipMemberSize(1000)
+                .build();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(file), options)) {
+            writer.writeAll(exchanges);
+        }
+
+        // Members concatenate to the uncompressed output.
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                decompressed.write(buffer, 0, read);
+            }
+        }
+        assertArrayEquals(plain.toByteArray(), decompressed.toByteArray());
+
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(exchanges, HttpExchangeReader.fromJsonLines(in).collect(Collectors.toList()));
+        }
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(file)) {
+            assertEquals(exchanges, stream.parallel().collect(Collectors.toList()));
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            GzipJsonLinesSpliterator spliterator = GzipJsonLinesSpliterator.open(new HttpExchangeDecoder(HttpExchangeReader.Options.DEFAULT), channel);
+            Spliterator<HttpExchange> prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            assertEquals(channel.size(), prefix.estimateSize() + spliterator.estimateSize());
+        }
+
+        // Files from other GZIP tools, without member sizes, are read sequentially.
+        Path otherFile = tempDir.resolve("other.jsonl.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(otherFile))) {
+            out.write(plain.toByteArray());
+        }
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(otherFile)) {
+            assertEquals(exchanges, stream.parallel().collect(Collectors.toList()));
+        }
+
+        // An empty output is a valid GZIP file.
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        new HttpExchangeWriter(empty, options).close();
+        assertEquals(0, HttpExchangeReader.fromJsonLines(new ByteArrayInputStream(empty.toByteArray())).count());
+
+        // Malformed lines are reported with line numbers in the decompressed input.
+        String sample = HttpExchangeReader.fromJsonLines(new ByteArrayInputStream(plain.toByteArray()))
+                .findFirst().map(HttpExchangeTest::toJsonLine).orElseThrow(AssertionError::new);
+        Path malformedFile = tempDir.resolve("malformed.jsonl.gz");
+        try (OutputStream out = Files.newOutputStream(malformedFile)) {
+            GzipMemberWriter gzip = new GzipMemberWriter();
+            for (int member = 0; member < 10; member++) {
+                byte[] lines = String.join("\n", Collections.nCopies(10, member == 7 ? "not json" : sample)).concat("\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                gzip.write(lines, 0, lines.length, out);
+            }
+            gzip.end();
+        }
+        List<Long> lineNumbers = Collections.synchronizedList(new ArrayList<>());
+        HttpExchangeReader.Options lenient = new HttpExchangeReader.Options.Builder()
+                .errorHandler((lineNumber, offset, error) -> lineNumbers.add(lineNumber))
+                .build();
+        try (Stream<HttpExchange> stream = HttpExchangeReader.fromJsonLines(malformedFile, lenient)) {
+            assertEquals(90, stream.parallel().count());
+        }
+        Collections.sort(lineNumbers);
+        List<Long> expected = new ArrayList<>();
+        for (long line = 71; line <= 80; line++) {
+            expected.add(line);
+        }
+        assertEquals(expected, lineNumbers);
+    }
+
+    private static String toJsonLine(HttpExchange exchange) {
+        StringWriter out = new StringWriter();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(out)) {
+            writer.write(exchange);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    @Test
+    void lazyDecoding() throws Exception {
+        HttpExchangeReader.Options lazy = new HttpExchangeReader.Options.Builder().lazy(true).build();
+        List<HttpExchange> eagerExchanges = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl")).collect(Collectors.toList());
+        List<HttpExchange> lazyExchanges = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"), lazy).collect(Collectors.toList());
+        assertEquals(eagerExchanges, lazyExchanges);
+        assertEquals(eagerExchanges.hashCode(), HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"), lazy).collect(Collectors.toList()).hashCode());
+
+        HttpExchange exchange = HttpExchangeReader.fromJson(getClass().getResourceAsStream("/sample-with-pathname-and-query.json"), lazy);
+        assertEquals(HttpExchangeReader.fromJson(getClass().getResourceAsStream("/sample-with-pathname-and-query.json")), exchange);
+        assertEquals(Arrays.asList("value1", "value2"), exchange.getRequest().getUrl().getAllQueryParameters("anotherkey"));
+
+        // Invalid header values are only detected when the headers are first accessed.
+        String json = "{\"request\":{\"method\":\"get\",\"protocol\":\"http\",\"host\":\"h\",\"pathname\":\"/\",\"headers\":{\"h\":1}}," +
+                "\"response\":{\"statusCode\":200,\"headers\":{},\"body\":\"\\u00e5\"}}";
+        assertThrows(RuntimeException.class, () -> HttpExchangeReader.fromJson(json));
+        HttpExchange lazyExchange = HttpExchangeReader.fromJson(json, lazy);
+        assertEquals(200, lazyExchange.getResponse().getStatusCode());
+        assertEquals("\u00e5", lazyExchange.getResponse().getBody());
+        assertThrows(RuntimeException.class, () -> lazyExchange.getRequest().getHeaders());
+    }
+
+    @Test
+    void fieldProjection() throws Exception {
+        String json = "{\"request\":{\"method\":\"post\",\"protocol\":\"http\",\"host\":\"h\",\"pathname\":\"/\",\"query\":{\"q\":\"v\"}," +
+                "\"headers\":{\"h\":\"v\"},\"body\":\"requestBody\"}," +
+                "\"response\":{\"statusCode\":200,\"headers\":{\"h\":\"v\"},\"body\":\"responseBody\"}}";
+
+        HttpExchange full = HttpExchangeReader.fromJson(json);
+        assertEquals("requestBody", full.getRequest().getBody());
+        assertEquals("responseBody", full.getResponse().getBody());
+
+        HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder()
+                .exclude(HttpExchangeReader.Field.RESPONSE_BODY, HttpExchangeReader.Field.QUERY, HttpExchangeReader.Field.REQUEST_HEADERS)
+                .build();
+        assertEquals(EnumSet.of(HttpExchangeReader.Field.REQUEST_BODY, HttpExchangeReader.Field.RESPONSE_HEADERS), options.getFields());
+        for (boolean lazy : new boolean[]{false, true}) {
+            HttpExchange projected = HttpExchangeReader.fromJson(json, new HttpExchangeReader.Options.Builder()
+                    .fields(options.getFields())
+                    .lazy(lazy)
+                    .build());
+            assertNull(projected.getResponse().getBody());
+            assertEquals(Collections.emptyMap(), projected.getRequest().getUrl().getQueryParameters());
+            assertEquals(Collections.emptyMap(), projected.getRequest().getHeaders().asMap());
+            assertEquals("requestBody", projected.getRequest().getBody());
+            assertEquals("v", projected.getResponse().getHeaders().getFirst("h"));
+        }
+
+        // The response body is only required when it is read.
+        String withoutBody = json.replace(",\"body\":\"responseBody\"", "");
+        assertThrows(RuntimeException.class, () -> HttpExchangeReader.fromJson(withoutBody));
+        assertEquals(200, HttpExchangeReader.fromJson(withoutBody, options).getResponse().getStatusCode());
+    }
+
+    @Test
+    void filterPushdown() throws Exception {
+        List<HttpExchangeFilter> filters = Arrays.asList(
+                new HttpExchangeFilter.Builder().build(),
+                new HttpExchangeFilter.Builder().methods(HttpMethod.POST).build(),
+                new HttpExchangeFilter.Builder().statusCodes(400, 599).build(),
+                new HttpExchangeFilter.Builder().host("EXAMPLE.COM").pathnamePrefix("/user/repos2").build(),
+                new HttpExchangeFilter.Builder().requestTimestamps(null, OffsetDateTime.parse("2019-01-01T00:00:00Z").toInstant()).build());
+        List<HttpExchange> all = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl")).collect(Collectors.toList());
+
+        for (HttpExchangeFilter filter : filters) {
+            List<HttpExchange> expected = all.stream().filter(filter).collect(Collectors.toList());
+            for (boolean lazy : new boolean[]{false, true}) {
+                HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder().filter(filter).lazy(lazy).build();
+                assertEquals(expected, HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"), options)
+                        .collect(Collectors.toList()), filter.toString());
+            }
+        }
+        assertEquals(1, all.stream().filter(filters.get(1)).count());
+        assertEquals(0, all.stream().filter(filters.get(2)).count());
+        assertEquals("/user/repos2", all.stream().filter(filters.get(3)).findFirst().get().getRequest().getUrl().getPathname());
+        assertEquals("/user/repos1", all.stream().filter(filters.get(4)).findFirst().get().getRequest().getUrl().getPathname());
+
+        HttpExchangeReader.Options onlyPut = new HttpExchangeReader.Options.Builder()
+                .filter(new HttpExchangeFilter.Builder().methods(HttpMethod.PUT).build())
+                .build();
+        assertNull(HttpExchangeReader.fromJson(getClass().getResourceAsStream("/sample-with-path.json"), onlyPut));
+    }
+
+    @Test
+    void lenientJsonLines(@TempDir Path tempDir) throws Exception {
+        String[] sample = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/sample.jsonl"), StandardCharsets.UTF_8))
+                .lines().toArray(String[]::new);
+        List<String> lines = Arrays.asList(sample[0], "{\"request\":", sample[1], "not json",
+                sample[0].replace("2018-11-13T20:20:39+02:00", "yesterday"), "", sample[1]);
+        String jsonLines = String.join("\n", lines);
+
+        List<Long> lineNumbers = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder()
+                .errorHandler((lineNumber, offset, error) -> {
+                    lineNumbers.add(lineNumber);
+                    offsets.add(offset);
+                })
+                .build();
+        assertThrows(RuntimeException.class, () -> HttpExchangeReader.fromJsonLines(jsonLines).count());
+        assertEquals(3, HttpExchangeReader.fromJsonLines(jsonLines, options).count());
+        assertEquals(Arrays.asList(2L, 4L, 5L), lineNumbers);
+        assertEquals(Arrays.asList((long) jsonLines.indexOf("{\"request\":"), (long) jsonLines.indexOf("not json"),
+                (long) jsonLines.indexOf("not json") + "not json\n".length()), offsets);
+
+        // Line numbers of files read in parallel count the lines before a split range.
+        Path file = tempDir.resolve("exchanges.jsonl");
+        List<String> fileLines = new ArrayList<>(Collections.nCopies(100, sample[0]));
+        fileLines.set(90, "not json");
+        Files.write(file, fileLines, StandardCharsets.UTF_8);
+        lineNumbers.clear();
+        offsets.clear();
+        try (FileChannel channel = FileChannel.open(file)) {
+            JsonLinesSpliterator spliterator = new JsonLinesSpliterator(new HttpExchangeDecoder(options), channel, 0, channel.size(), 1024, 1024);
+            Spliterator<HttpExchange> prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            long count = StreamSupport.stream(spliterator, false).count() + StreamSupport.stream(prefix, false).count();
+            assertEquals(99, count);
+        }
+        assertEquals(Collections.singletonList(91L), lineNumbers);
+        assertEquals(Collections.singletonList(90L * (sample[0].getBytes(StandardCharsets.UTF_8).length + 1)), offsets);
+    }
+
+    @Test
+    void stringDictionary() throws Exception {
+        StringDictionary dictionary = new StringDictionary();
+        HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder().stringDictionary(dictionary).build();
+        List<HttpExchange> exchanges = HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"), options)
+                .collect(Collectors.toList());
+        assertEquals(HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl")).collect(Collectors.toList()), exchanges);
+
+        HttpRequest first = exchanges.get(0).getRequest();
+        HttpRequest second = exchanges.get(1).getRequest();
+        assertSame(first.getUrl().getHost(), second.getUrl().getHost());
+        assertSame(first.getHeaders().getFirst("user-agent"), second.getHeaders().getFirst("user-agent"));
+        assertSame(first.getHeaders().asMap().keySet().iterator().next(), second.getHeaders().asMap().keySet().iterator().next());
+        assertTrue(dictionary.getHitRate() > 0.4, dictionary.toString());
+    }
+
+    @Test
+    void writeSameBytesAsJsonWriter() throws Exception {
+        StringBuilder allChars = new StringBuilder("</script><\\/\"");
+        for (char c = 0; c < 0x2200; c++) {
+            allChars.append(c);
+        }
+        allChars.append("\ud83d\ude00 \ud83d \ude00 \ud83d");
+        StringBuilder longBody = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            longBody.append("\u0001\u00e5\ud83d\ude00");
+        }
+        List<HttpExchange> exchanges = new ArrayList<>(HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"))
+                .collect(Collectors.toList()));
+        exchanges.add(new HttpExchange.Builder()
+                .request(new HttpRequest.Builder()
+                        .method(HttpMethod.OPTIONS)
+                        .url(new HttpUrl.Builder()
+                                .protocol(HttpProtocol.HTTPS)
+                                .host("example.com")
+                                .pathname("/" + allChars.toString().replace("?", ""))
+                                .queryParameters(Collections.singletonMap(allChars.toString(), ""))
+                                .build())
+                        .headers(new HttpHeaders.Builder().add("x", allChars.toString()).addAll("y", Arrays.asList("1", "2")).build())
+                        .timestamp(Instant.ofEpochSecond(1573669239, 123_000_000))
+                        .body(longBody.toString())
+                        .build())
+                .response(new HttpResponse.Builder()
+                        .statusCode(-1)
+                        .timestamp(Instant.ofEpochSecond(1573669239, 123_456_789))
+                        .body(allChars.toString())
+                        .build())
+                .build());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(expected, StandardCharsets.UTF_8))) {
+            for (HttpExchange exchange : exchanges) {
+                if (exchange != exchanges.get(0)) {
+                    writer.write('\n');
+                }
+                writeWithJsonWriter(writer, exchange);
+            }
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(actual)) {
+            writer.writeAll(exchanges);
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        StringWriter characters = new StringWriter();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(characters)) {
+            writer.writeAll(exchanges);
+        }
+        assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8), characters.toString());
+    }
+
+    @Test
+    void passBodyBytesThrough() throws Exception {
+        StringBuilder allChars = new StringBuilder("</script><\\/\"");
+        for (char c = 0; c < 0x2200; c++) {
+            if (!Character.isSurrogate(c)) {
+                allChars.append(c);
+            }
+        }
+        allChars.append("\ud83d\ude00 \ud800");
+        HttpExchange exchange = new HttpExchange.Builder()
+                .request(new HttpRequest.Builder()
+                        .method(HttpMethod.POST)
+                        .url(new HttpUrl.Builder().protocol(HttpProtocol.HTTP).host("example.com").pathname("/").build())
+                        .body(allChars.toString())
+                        .build())
+                .response(new HttpResponse.Builder()
+                        .statusCode(200)
+                        .bodyBytes(ByteBuffer.wrap(new byte[]{'a', (byte) 0xc3, (byte) 0xa5, (byte) 0xff, 'b'}))
+                        .build())
+                .build();
+        String json = toJsonLine(exchange);
+        // Malformed bytes are replaced when written, as when decoded to a string.
+        assertEquals("a\u00e5\ufffdb", exchange.getResponse().getBody());
+        assertTrue(json.endsWith("\"body\":\"a\u00e5\ufffdb\"}}"));
+
+        HttpExchange read = HttpExchangeReader.fromJson(json);
+        ByteBuffer requestBody = read.getRequest().getBodyBytes();
+        assertTrue(requestBody.isReadOnly());
+        byte[] expected = allChars.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(ByteBuffer.wrap(expected), requestBody);
+        // Written again without decoding the bodies, the output is the same.
+        assertEquals(json, toJsonLine(read));
+        assertEquals(json, toJsonLine(HttpExchangeReader.fromJson(json, new HttpExchangeReader.Options.Builder().lazy(true).build())));
+        String replaced = allChars.toString().replace("\ud800", "?");
+        assertEquals(replaced, read.getRequest().getBody());
+        // The unpaired surrogate is read as its replacement, so the request body no longer equals the written one.
+        assertNotEquals(exchange.getRequest(), read.getRequest());
+        assertEquals(new HttpRequest.Builder()
+                .method(HttpMethod.POST)
+                .url(exchange.getRequest().getUrl())
+                .body(replaced)
+                .build(), read.getRequest());
+    }
+
+    @Test
+    void spillLargeBodies(@TempDir Path tempDir) throws Exception {
+        StringBuilder largeBody = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            largeBody.append("</a>\"\u00e5\u2028\ud83d\ude00\n");
+        }
+        List<HttpExchange> exchanges = new ArrayList<>(HttpExchangeReader.fromJsonLines(getClass().getResourceAsStream("/sample.jsonl"))
+                .collect(Collectors.toList()));
+        for (HttpExchange exchange : new ArrayList<>(exchanges)) {
+            exchanges.add(new HttpExchange.Builder()
+                    .request(exchange.getRequest())
+                    .response(new HttpResponse.Builder()
+                            .statusCode(200)
+                            .body(largeBody.toString())
+                            .build())
+                    .build());
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(expected)) {
+            writer.writeAll(exchanges);
+        }
+
+        Path spillDirectory = Files.createDirectory(tempDir.resolve("spill"));
+        HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder()
+                .spillThreshold(1000)
+                .spillDirectory(spillDirectory)
+                .build();
+        List<HttpExchange> read = HttpExchangeReader.fromJsonLines(new ByteArrayInputStream(expected.toByteArray()), options)
+                .collect(Collectors.toList());
+        assertEquals(exchanges, read);
+        assertEquals(exchanges.stream().map(HttpExchange::hashCode).collect(Collectors.toList()),
+                read.stream().map(HttpExchange::hashCode).collect(Collectors.toList()));
+        HttpResponse spilled = read.get(read.size() - 1).getResponse();
+        assertTrue(spilled.getBodyBytes().isDirect());
+        assertFalse(read.get(0).getResponse().getBodyBytes().isDirect());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = spilled.getBodyStream()) {
+            byte[] buffer = new byte[1000];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                body.write(buffer, 0, n);
+            }
+        }
+        assertEquals(largeBody.toString(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+        if (!System.getProperty("os.name").startsWith("Windows")) {
+            try (Stream<Path> files = Files.list(spillDirectory)) {
+                assertEquals(0, files.count());
+            }
+        }
+
+        // Compared to exchanges read without spilling, as the order of headers may change when reading.
+        ByteArrayOutputStream notSpilled = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(notSpilled)) {
+            writer.writeAll(HttpExchangeReader.fromJsonLines(new ByteArrayInputStream(expected.toByteArray()))
+                    .collect(Collectors.toList()));
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(actual)) {
+            writer.writeAll(read);
+        }
+        assertArrayEquals(notSpilled.toByteArray(), actual.toByteArray());
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(gzip, new HttpExchangeWriter.Options.Builder().gzip(true).build())) {
+            writer.writeAll(read);
+        }
+        assertEquals(exchanges, HttpExchangeReader.fromJsonLines(new ByteArrayInputStream(gzip.toByteArray()))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void hashSpilledBodies(@TempDir Path tempDir) throws Exception {
+        StringBuilder largeBody = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            // Multi-byte characters and surrogate pairs across the boundaries of decoded chunks.
+            largeBody.append("a\u00e5\u2028\ud83d\ude00");
+        }
+        String string = largeBody.toString();
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        HttpBody spilled = HttpBody.spill(bytes, tempDir);
+
+        assertEquals(string.hashCode(), spilled.hashCode());
+        assertEquals(string.hashCode(), spilled.hashCode());
+        assertEquals(HttpBody.ofString(string), spilled);
+        assertEquals(spilled, HttpBody.ofString(string));
+        assertEquals(spilled, HttpBody.spill(bytes, tempDir));
+        assertNotEquals(spilled, HttpBody.ofString(string + "x"));
+        assertNotEquals(spilled, HttpBody.ofString(string.substring(0, string.length() - 1) + "x"));
+        assertNotEquals(HttpBody.ofString(string.substring(1)), spilled);
+        assertFalse(spilled.toString().contains(string.substring(0, 10)));
+
+        // Malformed bytes are compared as their replacement.
+        HttpBody malformed = HttpBody.spill(new byte[]{'a', (byte) 0xff, (byte) 0xc3}, tempDir);
+        assertEquals(HttpBody.ofString("a\ufffd\ufffd"), malformed);
+        assertEquals("a\ufffd\ufffd".hashCode(), malformed.hashCode());
+        assertEquals(HttpBody.ofBytes(new byte[]{'a', (byte) 0xfe, (byte) 0xc3}), malformed);
+    }
+
+    /**
+     * Serialization of exchanges as done before writing bytes directly.
+     */
+    private static void writeWithJsonWriter(Writer out, HttpExchange exchange) {
+        JSONWriter writer = new JSONWriter(out);
+        writer.object();
+        HttpRequest request = exchange.getRequest();
+        writer.key("request").object();
+        if (request.getTimestamp() != null) {
+            writer.key("timestamp").value(DateTimeFormatter.ISO_INSTANT.format(request.getTimestamp()));
+        }
+        writer.key("protocol").value(request.getUrl().getProtocol().name().toLowerCase());
+        writer.key("method").value(request.getMethod().name().toLowerCase());
+        writer.key("headers").object();
+        for (Map.Entry<String, List<String>> entry : request.getHeaders().asMap().entrySet()) {
+            writer.key(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+        writer.key("pathname").value(request.getUrl().getPathname());
+        writer.key("host").value(request.getUrl().getHost());
+        if (!request.getUrl().getQueryParameters().isEmpty()) {
+            writer.key("query").object();
+            for (Map.Entry<String, List<String>> entry : request.getUrl().getQueryParameters().entrySet()) {
+                writer.key(entry.getKey()).value(entry.getValue());
+            }
+            writer.endObject();
+        }
+        if (request.getBody() != null) {
+            writer.key("body").value(request.getBody());
+        }
+        writer.endObject();
+        HttpResponse response = exchange.getResponse();
+        writer.key("response").object();
+        if (response.getTimestamp() != null) {
+            writer.key("timestamp").value(DateTimeFormatter.ISO_INSTANT.format(response.getTimestamp()));
+        }
+        writer.key("statusCode").value(response.getStatusCode());
+        writer.key("headers").object();
+        for (Map.Entry<String, List<String>> entry : response.getHeaders().asMap().entrySet()) {
+            writer.key(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+        if (response.getBody() != null) {
+            writer.key("body").value(response.getBody());
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
     private void testJsonlStream(Stream<HttpExchange> stream) {
         List<HttpExchange> exchanges = stream.collect(Collectors.toList());
         assertEquals(2, exchanges.size());
@@ -2,11 +2,18 @@ package com.meeshkan.http.types;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class HttpHeadersTest {
 
@@ -38,4 +45,93 @@ public class HttpHeadersTest {
         assertEquals(headers.hashCode(), headers2.hashCode());
     }
 
+    @Test
+    void flatHeaders() {
+        HttpHeaders.Builder builder = new HttpHeaders.Builder()
+                .add("Content-Type", "text/plain")
+                .add("X-Multi", "1")
+                .add("accept", "*/*")
+                .add("x-multi", "2")
+                .add("\u00c5-Header", "\u00e5");
+        HttpHeaders headers = builder.build();
+        builder.add("accept", "text/html");
+
+        assertEquals("text/plain", headers.getFirst("CONTENT-TYPE"));
+        assertEquals(asList("1", "2"), headers.getAll("X-MULTI"));
+        assertEquals(singletonList("*/*"), headers.getAll("Accept"));
+        assertEquals("\u00e5", headers.getFirst("\u00c5-HEADER"));
+        assertNull(headers.getFirst("content-typ"));
+        assertEquals(asList("content-type", "x-multi", "accept", "\u00e5-header"), new ArrayList<>(headers.asMap().keySet()));
+        assertEquals(asList("1", "2"), headers.asMap().get("x-multi"));
+        assertThrows(UnsupportedOperationException.class, () -> headers.asMap().get("accept").add("text/html"));
+        assertEquals(new HttpHeaders.Builder()
+                .add("accept", "*/*")
+                .addAll("x-multi", asList("1", "2"))
+                .add("\u00e5-header", "\u00e5")
+                .add("content-type", "text/plain")
+                .build(), headers);
+    }
+
+    @Test
+    void namesWithoutValues() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .addAll("X-Empty", Collections.emptyList())
+                .add("accept", "*/*")
+                .addAll("Accept", Collections.emptyList())
+                .build();
+
+        assertEquals(asList("x-empty", "accept"), new ArrayList<>(headers.asMap().keySet()));
+        assertEquals(Collections.emptyList(), headers.asMap().get("x-empty"));
+        assertEquals(singletonList("*/*"), headers.asMap().get("accept"));
+        assertNull(headers.getFirst("x-empty"));
+        assertEquals(Collections.emptyList(), headers.getAll("x-empty"));
+        assertEquals("*/*", headers.getFirst(KnownHeader.ACCEPT));
+        assertEquals(singletonList("*/*"), headers.getAll(KnownHeader.ACCEPT));
+
+        // Written as an empty array, and read back.
+        HttpExchange exchange = new HttpExchange.Builder()
+                .request(new HttpRequest.Builder()
+                        .method(HttpMethod.GET)
+                        .url(new HttpUrl.Builder().protocol(HttpProtocol.HTTP).host("example.com").pathname("/").build())
+                        .headers(headers)
+                        .build())
+                .response(new HttpResponse.Builder().statusCode(200).body("").build())
+                .build();
+        StringWriter out = new StringWriter();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(out)) {
+            writer.write(exchange);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        assertTrue(out.toString().contains("\"x-empty\":[]"), out.toString());
+        assertEquals(headers, HttpExchangeReader.fromJson(out.toString()).getRequest().getHeaders());
+    }
+
+    @Test
+    void knownHeaders() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("X-Custom", "custom")
+                .add("Content-Type", "text/plain")
+                .add(KnownHeader.SET_COOKIE, "a=1")
+                .add("set-cookie", "b=2")
+                .build();
+
+        assertEquals("text/plain", headers.getFirst(KnownHeader.CONTENT_TYPE));
+        assertEquals(asList("a=1", "b=2"), headers.getAll(KnownHeader.SET_COOKIE));
+        assertEquals(asList("a=1", "b=2"), headers.getAll("Set-Cookie"));
+        assertNull(headers.getFirst(KnownHeader.ACCEPT));
+        assertEquals(Collections.emptyList(), headers.getAll(KnownHeader.ACCEPT));
+        assertSame(KnownHeader.CONTENT_TYPE.getName(), headers.asMap().keySet().toArray()[1]);
+        assertEquals(KnownHeader.USER_AGENT, KnownHeader.forName("user-agent"));
+        assertNull(KnownHeader.forName("x-custom"));
+
+        HttpHeaders.Builder many = new HttpHeaders.Builder();
+        for (int i = 0; i < 300; i++) {
+            many.add("x-" + i, String.valueOf(i));
+        }
+        HttpHeaders manyHeaders = many.add("Accept", "*/*").add("accept", "text/html").build();
+        assertEquals("*/*", manyHeaders.getFirst(KnownHeader.ACCEPT));
+        assertEquals(asList("*/*", "text/html"), manyHeaders.getAll(KnownHeader.ACCEPT));
+    }
+
 }
@@ -2,12 +2,16 @@ package com.meeshkan.http.types;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class HttpResponseTest {
 
@@ -53,4 +57,29 @@ public class HttpResponseTest {
         assertNotEquals(response3, response4);
     }
 
+    @Test
+    void bodyBytes() {
+        ByteBuffer bytes = ByteBuffer.wrap("b\u00e5dy".getBytes(StandardCharsets.UTF_8));
+        HttpResponse response = new HttpResponse.Builder()
+                .bodyBytes(bytes)
+                .statusCode(200)
+                .build();
+
+        assertEquals(0, bytes.position());
+        assertEquals("b\u00e5dy", response.getBody());
+        assertEquals(bytes, response.getBodyBytes());
+        assertEquals(new HttpResponse.Builder().body("b\u00e5dy").statusCode(200).build(), response);
+        assertEquals(new HttpResponse.Builder().body("b\u00e5dy").statusCode(200).build().hashCode(), response.hashCode());
+        assertNull(new HttpResponse.Builder().bodyBytes(null).build().getBodyBytes());
+
+        // Equality and hash codes are those of the string bodies, even where the UTF-8 bytes are the same.
+        HttpResponse unpaired = new HttpResponse.Builder().body("\ud800").statusCode(200).build();
+        HttpResponse replaced = new HttpResponse.Builder().body("?").statusCode(200).build();
+        assertEquals(ByteBuffer.wrap("?".getBytes(StandardCharsets.UTF_8)), unpaired.getBodyBytes());
+        assertNotEquals(replaced, unpaired);
+        assertEquals(Objects.hash("b\u00e5dy", 200, response.getHeaders(), null), response.hashCode());
+        HttpResponse malformed = new HttpResponse.Builder().bodyBytes(ByteBuffer.wrap(new byte[]{(byte) 0xff})).statusCode(200).build();
+        assertEquals(new HttpResponse.Builder().body("\ufffd").statusCode(200).build(), malformed);
+    }
+
 }
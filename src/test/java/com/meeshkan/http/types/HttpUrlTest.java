@@ -4,9 +4,13 @@ import org.junit.jupiter.api.Test;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class HttpUrlTest {
 
@@ -54,4 +58,89 @@ public class HttpUrlTest {
         assertEquals(Arrays.asList("v1", "v2"), url.getAllQueryParameters("n"));
     }
 
+    @Test
+    void encodeLikeUrlEncoder() throws Exception {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x800; c++) {
+            all.append(c);
+        }
+        List<String> samples = new ArrayList<>(Arrays.asList("", "plain", "a b+c&d=e/f?g#h%i", "*-._~!'()",
+                "\u00e5\u00e4\u00f6", "\u20ac\uffff", "\ud83d\ude00x", "x\ud83d", "\ude00x\ud83d\ud83d", all.toString()));
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000));
+            }
+            samples.add(new String(chars));
+        }
+        for (String sample : samples) {
+            StringBuilder encoded = new StringBuilder();
+            HttpUrl.appendEncoded(encoded, sample);
+            assertEquals(URLEncoder.encode(sample, "utf-8"), encoded.toString());
+        }
+    }
+
+    @Test
+    void cachedPath() {
+        HttpUrl url = new HttpUrl.Builder()
+                .protocol(HttpProtocol.HTTP)
+                .host("example.com")
+                .pathname("/my/path")
+                .addQueryParameter("my key", "my value/\u00e5")
+                .build();
+
+        assertEquals("/my/path?my+key=my+value%2F%C3%A5", url.getPath());
+        assertSame(url.getPath(), url.getPath());
+    }
+
+    @Test
+    void preserveRawPath() {
+        String rawPath = "/my/path?b=%7e&a=x%20y&b";
+        HttpUrl.Builder builder = new HttpUrl.Builder()
+                .protocol(HttpProtocol.HTTP)
+                .host("example.com")
+                .preserveRawPath(true)
+                .path(rawPath + "#fragment");
+        HttpUrl url = builder.build();
+        assertEquals(rawPath, url.getPath());
+        assertEquals("x y", url.getFirstQueryParameter("a"));
+        assertEquals(new HttpUrl.Builder().protocol(HttpProtocol.HTTP).host("example.com").path(rawPath).build(), url);
+
+        assertEquals("/my/path?a=x+y&c=d", builder.queryParameters(Collections.singletonMap("a", "x y")).addQueryParameter("c", "d").build().getPath());
+
+        String json = "{\"request\":{\"method\":\"get\",\"protocol\":\"http\",\"host\":\"h\",\"headers\":{}," +
+                "\"path\":\"/p?q=%7e%2f\"},\"response\":{\"statusCode\":200,\"headers\":{},\"body\":\"\"}}";
+        HttpExchangeReader.Options options = new HttpExchangeReader.Options.Builder().preserveRawPath(true).build();
+        assertEquals("/p?q=%7e%2f", HttpExchangeReader.fromJson(json, options).getRequest().getUrl().getPath());
+        assertEquals("/p?q=%7E%2F", HttpExchangeReader.fromJson(json).getRequest().getUrl().getPath());
+    }
+
+    @Test
+    void parsePathLikeUrl() throws Exception {
+        List<String> paths = Arrays.asList("", "/", "/a/path", "/a/./b/../c?x=1#f", "relative?q", "/a?b?c=d#e?f", "/a#x?y",
+                "/a b?c+d=e+f%20g", "/a%zz?x=%41", "/a?=v&k=&&k2", "/a?", "/a?&", "/a?x&&", "/a?&&x", "/a?#", "/a#",
+                "/a?k=%C3%A5%E2%82%AC%F0%9F%98%80&k=%c3+%a5&k=%ff%e2%82", "/a?%2B%3D=%26%3D&n=v1&n=v2&n",
+                "/user/repos?mykey=myvalue&anotherkey=value1&anotherkey=value2");
+        for (String path : paths) {
+            HttpUrl url = new HttpUrl.Builder().protocol(HttpProtocol.HTTP).host("h").path(path).build();
+            URL expected = new URL("file:" + path);
+            Map<String, List<String>> expectedQuery = new HashMap<>();
+            if (expected.getQuery() != null) {
+                for (String pair : expected.getQuery().split("&")) {
+                    int idx = pair.indexOf("=");
+                    String key = idx > 0 ? URLDecoder.decode(pair.substring(0, idx), "utf-8") : pair;
+                    String value = idx > 0 && pair.length() > idx + 1 ? URLDecoder.decode(pair.substring(idx + 1), "utf-8") : null;
+                    expectedQuery.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+                }
+            }
+            assertEquals(expected.getPath(), url.getPathname(), path);
+            assertEquals(expectedQuery, url.getQueryParameters(), path);
+        }
+
+        for (String malformed : Arrays.asList("/a?k=%", "/a?k=%4", "/a?k=%4g", "/a?k%zz=v")) {
+            assertThrows(IllegalArgumentException.class, () -> new HttpUrl.Builder().path(malformed));
+        }
+    }
+
 }
@@ -0,0 +1,89 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Iso8601Test {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffsetId()
+            .toFormatter();
+
+    /**
+     * The parser used before, which the new one must agree with.
+     */
+    private static Instant parseBest(String input) {
+        TemporalAccessor parsed = DATE_TIME_FORMATTER.parseBest(input, Instant::from, LocalDateTime::from);
+        if (parsed instanceof Instant) {
+            return (Instant) parsed;
+        }
+        return ((LocalDateTime) parsed).atOffset(ZoneOffset.UTC).toInstant();
+    }
+
+    @Test
+    void parseAsBefore() {
+        Random random = new Random(42);
+        String[] fractions = {"", ".1", ".12", ".123", ".1234", ".123456", ".123456789", ".000000001"};
+        String[] offsets = {"", "Z", "+00:00", "-00:00", "+02:00", "-05:30", "+14:00", "-12:45", "+01:02:03", "+18:00"};
+        for (int i = 0; i < 10000; i++) {
+            LocalDateTime dateTime = LocalDateTime.ofEpochSecond(random.nextLong() % 253402300799L, 0, ZoneOffset.UTC)
+                    .withYear(random.nextInt(10000));
+            String local = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm").format(dateTime);
+            if (random.nextBoolean()) {
+                local += String.format(":%02d", dateTime.getSecond()) + fractions[random.nextInt(fractions.length)];
+            }
+            String timestamp = local + offsets[random.nextInt(offsets.length)];
+            assertEquals(parseBest(timestamp), Iso8601.parse(timestamp), timestamp);
+        }
+        // Left to DateTimeFormatter: extended years, smart resolving of days past the end of the month and of 24:00,
+        // an empty fraction and lower case letters.
+        String[] special = {"+12345-01-01T00:00", "2020-02-29T23:59:59.999999999-18:00", "2019-02-29T00:00", "2019-04-31T12:00Z",
+                "2019-01-01T24:00", "2019-01-01T00:00:00.", "2019-01-01t00:00z"};
+        for (String timestamp : special) {
+            assertEquals(parseBest(timestamp), Iso8601.parse(timestamp), timestamp);
+        }
+    }
+
+    @Test
+    void rejectInvalid() {
+        String[] invalid = {"", "yesterday", "2019-02-32T00:00", "2019-13-01T00:00", "2019-01-01T25:00", "2019-01-01T00:60",
+                "2019-01-01T00:00:60", "2019-01-01T00:00:00.1234567891", "2019-01-01T00:00+19:00",
+                "2019-01-01T00:00+02", "2019-01-01T00:00Z ", "2019-01-01 00:00", "2019-1-01T00:00"};
+        for (String timestamp : invalid) {
+            assertThrows(DateTimeParseException.class, () -> parseBest(timestamp), timestamp);
+            assertThrows(DateTimeParseException.class, () -> Iso8601.parse(timestamp), timestamp);
+        }
+    }
+
+    @Test
+    void formatAsBefore() {
+        Random random = new Random(42);
+        Iso8601.Formatter formatter = new Iso8601.Formatter();
+        int[] nanos = {0, 100_000_000, 120_000_000, 123_000_000, 123_400_000, 123_456_000, 123_456_700, 1};
+        for (int i = 0; i < 10000; i++) {
+            Instant instant = Instant.ofEpochSecond(random.nextLong() % 300000000000L, nanos[random.nextInt(nanos.length)]);
+            assertEquals(DateTimeFormatter.ISO_INSTANT.format(instant), formatter.format(instant));
+            // Same second, cached.
+            Instant later = instant.plusNanos(nanos[random.nextInt(nanos.length)] / 10);
+            assertEquals(DateTimeFormatter.ISO_INSTANT.format(later), formatter.format(later));
+            assertEquals(later, Iso8601.parse(formatter.format(later)));
+        }
+        assertEquals("1970-01-01T00:00:00Z", formatter.format(Instant.EPOCH));
+        assertEquals("0000-01-01T00:00:00Z", formatter.format(Instant.parse("0000-01-01T00:00:00Z")));
+        assertEquals(DateTimeFormatter.ISO_INSTANT.format(Instant.MAX), formatter.format(Instant.MAX));
+        assertEquals(DateTimeFormatter.ISO_INSTANT.format(Instant.MIN), formatter.format(Instant.MIN));
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RollingHttpExchangeWriterTest {
+
+    private static HttpExchange exchange(int i) {
+        return TestExchanges.exchange("/" + i, Instant.ofEpochSecond(1_000_000 + i));
+    }
+
+    private static List<String> readPathnames(Path segment) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(segment))) {
+            return HttpExchangeReader.fromJsonLines(in)
+                    .map(exchange -> exchange.getRequest().getUrl().getPathname())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void rollBySize(@TempDir Path directory) throws IOException {
+        RollingHttpExchangeWriter.Options options = new RollingHttpExchangeWriter.Options.Builder()
+                .maxSegmentSize(20_000)
+                .build();
+        try (RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(directory, options)) {
+            for (int i = 0; i < 2000; i++) {
+                writer.write(exchange(i));
+            }
+        }
+
+        List<RollingHttpExchangeWriter.Segment> segments = RollingHttpExchangeWriter.readManifest(directory.resolve("exchanges.manifest.jsonl"));
+        assertTrue(segments.size() > 1, "Segments: " + segments);
+        List<String> pathnames = new ArrayList<>();
+        long records = 0;
+        for (RollingHttpExchangeWriter.Segment segment : segments) {
+            assertTrue(segment.getFile().getFileName().toString().matches("exchanges-\\d{5}\\.jsonl\\.gz"));
+            List<String> ofSegment = readPathnames(segment.getFile());
+            assertEquals(segment.getRecords(), ofSegment.size());
+            assertEquals(Instant.ofEpochSecond(1_000_000 + records), segment.getMinRequestTimestamp());
+            assertEquals(Instant.ofEpochSecond(1_000_000 + records + segment.getRecords() - 1), segment.getMaxRequestTimestamp());
+            records += segment.getRecords();
+            pathnames.addAll(ofSegment);
+        }
+        assertEquals(2000, records);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("/" + i, pathnames.get(i));
+        }
+        // Only the compressed segments and the manifest are left.
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(segments.size() + 1, files.count());
+        }
+
+        RollingHttpExchangeWriter.Segment first = segments.get(0);
+        assertTrue(first.mayContainRequestTimestamps(Instant.ofEpochSecond(1_000_000), null));
+        assertFalse(first.mayContainRequestTimestamps(first.getMaxRequestTimestamp().plusSeconds(1), null));
+        assertFalse(first.mayContainRequestTimestamps(null, first.getMinRequestTimestamp()));
+    }
+
+    @Test
+    void rollByAge(@TempDir Path directory) throws Exception {
+        RollingHttpExchangeWriter.Options options = new RollingHttpExchangeWriter.Options.Builder()
+                .prefix("capture")
+                .maxSegmentAge(Duration.ofMillis(200))
+                .compress(false)
+                .build();
+        try (RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(directory, options)) {
+            writer.write(exchange(0));
+            Thread.sleep(300);
+            writer.write(exchange(1));
+            writer.write(exchange(2));
+        }
+        // Numbering continues after the existing segments.
+        RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(directory, options);
+        writer.write(exchange(3));
+        writer.close();
+        assertThrows(IllegalStateException.class, () -> writer.write(exchange(4)));
+        assertEquals(1, writer.getSegments().size());
+
+        List<RollingHttpExchangeWriter.Segment> segments = RollingHttpExchangeWriter.readManifest(directory.resolve("capture.manifest.jsonl"));
+        assertEquals(3, segments.size());
+        assertEquals(directory.resolve("capture-00000.jsonl"), segments.get(0).getFile());
+        assertEquals(1, segments.get(0).getRecords());
+        assertEquals(directory.resolve("capture-00001.jsonl"), segments.get(1).getFile());
+        assertEquals(2, segments.get(1).getRecords());
+        assertEquals(directory.resolve("capture-00002.jsonl"), segments.get(2).getFile());
+        assertEquals(1, HttpExchangeReader.fromJsonLines(segments.get(2).getFile()).count());
+    }
+
+    @Test
+    void rollIdleSegmentByAge(@TempDir Path directory) throws Exception {
+        RollingHttpExchangeWriter.Options options = new RollingHttpExchangeWriter.Options.Builder()
+                .maxSegmentAge(Duration.ofMillis(100))
+                .build();
+        try (RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(directory, options)) {
+            writer.write(exchange(0));
+            // No more exchanges are written, yet the segment is closed, compressed and listed.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (writer.getSegments().isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, writer.getSegments().size());
+            assertEquals(Collections.singletonList("/0"), readPathnames(writer.getSegments().get(0).getFile()));
+        }
+        assertEquals(1, RollingHttpExchangeWriter.readManifest(directory.resolve("exchanges.manifest.jsonl")).size());
+    }
+
+    @Test
+    void reportFailedCompression(@TempDir Path directory) throws Exception {
+        // The temporary file of the first compressed segment cannot be created.
+        Files.createDirectory(directory.resolve("exchanges-00000.jsonl.gz.tmp"));
+        RollingHttpExchangeWriter.Options options = new RollingHttpExchangeWriter.Options.Builder()
+                .maxSegmentSize(1)
+                .build();
+        try (RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(directory, options)) {
+            writer.write(exchange(0));
+            // Each write rolls the segment, and reports the failure once the first segment is done.
+            RuntimeException error = null;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            for (int i = 1; error == null && System.nanoTime() < deadline; i++) {
+                try {
+                    writer.write(exchange(i));
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                Thread.sleep(1);
+            }
+            assertNotNull(error);
+            assertTrue(error.getCause() instanceof IOException, "Cause: " + error.getCause());
+        }
+        assertFalse(RollingHttpExchangeWriter.readManifest(directory.resolve("exchanges.manifest.jsonl")).stream()
+                .anyMatch(segment -> segment.getFile().getFileName().toString().startsWith("exchanges-00000")));
+
+        // Failures not reported by a write are reported by closing.
+        Path other = Files.createDirectory(directory.resolve("other"));
+        Files.createDirectory(other.resolve("exchanges-00000.jsonl.gz.tmp"));
+        RollingHttpExchangeWriter writer = new RollingHttpExchangeWriter(other);
+        writer.write(exchange(0));
+        assertThrows(IOException.class, writer::close);
+    }
+
+}
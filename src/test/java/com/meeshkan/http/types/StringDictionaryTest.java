@@ -0,0 +1,48 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringDictionaryTest {
+
+    private static String intern(StringDictionary dictionary, String value) {
+        byte[] bytes = ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        return dictionary.intern(direct, 1, bytes.length - 1);
+    }
+
+    @Test
+    void stringDictionary() {
+        StringDictionary dictionary = new StringDictionary(100, 12);
+        assertEquals(128, dictionary.getCapacity());
+        assertEquals(0, dictionary.getHitRate());
+
+        String host = intern(dictionary, "www.example.com");
+        assertEquals("www.example.com", host);
+        assertNotSame(host, intern(dictionary, "www.example.com"), "Longer than the maximum length");
+
+        String accept = intern(dictionary, "accept");
+        assertSame(accept, intern(dictionary, "accept"));
+        assertEquals("\u00fcn\u00efc\u00f8d\u00e9", intern(dictionary, "\u00fcn\u00efc\u00f8d\u00e9"));
+        assertSame(intern(dictionary, "\u00fcn\u00efc\u00f8d\u00e9"), intern(dictionary, "\u00fcn\u00efc\u00f8d\u00e9"));
+        assertEquals(3, dictionary.getHits());
+        assertEquals(2, dictionary.getMisses());
+        assertEquals(0.6, dictionary.getHitRate());
+
+        // The dictionary stays bounded, evicting older strings.
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, intern(dictionary, "value" + i));
+        }
+        assertNotSame(accept, intern(dictionary, "accept"));
+
+        dictionary.resetStatistics();
+        assertEquals(0, dictionary.getHits());
+        assertEquals(0, dictionary.getMisses());
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.meeshkan.http.types;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.meeshkan.http.types.TestExchanges.exchange;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailingHttpExchangeReaderTest {
+
+    private static String toJsonLine(HttpExchange exchange) throws IOException {
+        StringWriter out = new StringWriter();
+        try (HttpExchangeWriter writer = new HttpExchangeWriter(out)) {
+            writer.write(exchange);
+        }
+        return out.toString();
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static List<String> pathnames(List<HttpExchange> exchanges) {
+        return exchanges.stream().map(exchange -> exchange.getRequest().getUrl().getPathname()).collect(Collectors.toList());
+    }
+
+    @Test
+    void followWriter(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file);
+             HttpExchangeWriter writer = new HttpExchangeWriter(Files.newOutputStream(file))) {
+            assertEquals(Collections.emptyList(), reader.poll());
+            writer.write(exchange("/0"));
+            writer.write(exchange("/1"));
+            writer.flush();
+            // The last line has no line feed yet, but is a whole exchange.
+            assertEquals(Arrays.asList("/0", "/1"), pathnames(reader.poll()));
+            assertEquals(Collections.emptyList(), reader.poll());
+            assertEquals(Files.size(file), reader.getOffset());
+
+            writer.write(exchange("/2"));
+            writer.flush();
+            assertEquals(Collections.singletonList("/2"), pathnames(reader.poll()));
+        }
+    }
+
+    @Test
+    void holdBackPartialLine(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        String line = toJsonLine(exchange("/0"));
+        String object = "{\"a\":{}}";
+        append(file, line + "\n" + line.substring(0, 40));
+        List<Long> lineNumbers = new ArrayList<>();
+        TailingHttpExchangeReader.Options options = new TailingHttpExchangeReader.Options.Builder()
+                .readerOptions(new HttpExchangeReader.Options.Builder()
+                        .errorHandler((lineNumber, offset, error) -> lineNumbers.add(lineNumber))
+                        .build())
+                .build();
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file, options)) {
+            assertEquals(1, reader.poll().size());
+            assertEquals(line.length() + 1, reader.getOffset());
+            append(file, line.substring(40));
+            append(file, "\n" + object);
+            // A whole JSON object which is not an exchange is only reported once its line is ended.
+            assertEquals(1, reader.poll().size());
+            assertEquals(Collections.emptyList(), lineNumbers);
+            append(file, "\n" + line);
+            assertEquals(1, reader.poll().size());
+            assertEquals(Collections.singletonList(3L), lineNumbers);
+        }
+    }
+
+    @Test
+    void truncationAndRotation(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        append(file, toJsonLine(exchange("/0")) + "\n" + toJsonLine(exchange("/1")) + "\n");
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file)) {
+            assertEquals(Arrays.asList("/0", "/1"), pathnames(reader.poll()));
+
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.write((toJsonLine(exchange("/2")) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(Collections.singletonList("/2"), pathnames(reader.poll()));
+
+            append(file, toJsonLine(exchange("/3")) + "\n");
+            Files.move(file, directory.resolve("exchanges.jsonl.1"));
+            assertEquals(Collections.singletonList("/3"), pathnames(reader.poll()));
+            append(directory.resolve("exchanges.jsonl.1"), toJsonLine(exchange("/4")) + "\n");
+            append(file, toJsonLine(exchange("/5")) + "\n");
+            // The rest of the rotated file is read before the new file.
+            assertEquals(Arrays.asList("/4", "/5"), pathnames(reader.poll()));
+        }
+    }
+
+    @Test
+    void fromEnd(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        append(file, toJsonLine(exchange("/0")) + "\n");
+        TailingHttpExchangeReader.Options options = new TailingHttpExchangeReader.Options.Builder().fromEnd(true).build();
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file, options)) {
+            assertEquals(Collections.emptyList(), reader.poll());
+            append(file, toJsonLine(exchange("/1")) + "\n");
+            assertEquals(Collections.singletonList("/1"), pathnames(reader.poll()));
+        }
+
+        // A last line still being written when the reader starts is read once complete.
+        String line = toJsonLine(exchange("/2"));
+        append(file, line.substring(0, 10));
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file, options)) {
+            assertEquals(Collections.emptyList(), reader.poll());
+            append(file, line.substring(10) + "\n");
+            assertEquals(Collections.singletonList("/2"), pathnames(reader.poll()));
+        }
+        // A complete last line without line feed is skipped.
+        append(file, toJsonLine(exchange("/3")));
+        try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file, options)) {
+            assertEquals(Collections.emptyList(), reader.poll());
+            append(file, "\n" + toJsonLine(exchange("/4")) + "\n");
+            assertEquals(Collections.singletonList("/4"), pathnames(reader.poll()));
+        }
+    }
+
+    @Test
+    void waitForExchanges(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("exchanges.jsonl");
+        for (boolean watch : new boolean[]{true, false}) {
+            Files.deleteIfExists(file);
+            TailingHttpExchangeReader.Options options = new TailingHttpExchangeReader.Options.Builder()
+                    .watch(watch)
+                    .pollInterval(Duration.ofMillis(1), Duration.ofMillis(50))
+                    .build();
+            try (TailingHttpExchangeReader reader = new TailingHttpExchangeReader(file, options)) {
+                assertEquals(Collections.emptyList(), reader.poll(20, TimeUnit.MILLISECONDS));
+                Thread writer = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 3; i++) {
+                            Thread.sleep(20);
+                            append(file, toJsonLine(exchange("/" + i)) + "\n");
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                writer.start();
+                assertEquals(Arrays.asList("/0", "/1", "/2"), reader.stream().limit(3)
+                        .map(exchange -> exchange.getRequest().getUrl().getPathname())
+                        .collect(Collectors.toList()));
+                writer.join();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.meeshkan.http.types;
+
+import java.time.Instant;
+
+/**
+ * Exchanges shared by the tests of readers and writers.
+ */
+final class TestExchanges {
+
+    private TestExchanges() {
+    }
+
+    /**
+     * A GET request to example.com with the given pathname, answered with status 200 and body "body".
+     */
+    static HttpExchange exchange(String pathname) {
+        return exchange(pathname, null);
+    }
+
+    /**
+     * A GET request to example.com with the given pathname and request timestamp, answered with status 200 and body
+     * "body".
+     */
+    static HttpExchange exchange(String pathname, Instant timestamp) {
+        return new HttpExchange.Builder()
+                .request(new HttpRequest.Builder()
+                        .timestamp(timestamp)
+                        .method(HttpMethod.GET)
+                        .url(new HttpUrl.Builder()
+                                .protocol(HttpProtocol.HTTP)
+                                .host("example.com")
+                                .pathname(pathname)
+                                .build())
+                        .build())
+                .response(new HttpResponse.Builder()
+                        .statusCode(200)
+                        .body("body")
+                        .build())
+                .build();
+    }
+
+}